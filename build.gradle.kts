@@ -43,6 +43,29 @@ tasks.withType<KotlinCompile> {
     }
 }
 
+// Vector API delimiter scanning, compiled against jdk.incubator.vector and shipped in the main jar,
+// it is only loaded when the application runs with --add-modules jdk.incubator.vector
+val vector: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+}
+
+tasks.named<JavaCompile>("compileVectorJava") {
+    // -Xlint:none silences the mandatory "using incubating module(s)" warning
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector", "-Xlint:none"))
+}
+
+tasks.jar {
+    from(vector.output)
+}
+
+sourceSets.test {
+    runtimeClasspath += vector.output
+}
+
+tasks.test {
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+}
+
 publishing {
     publications {
         create<MavenPublication>("mavenKotlin") {
@@ -0,0 +1,145 @@
+package com.rarnu.ison
+
+/**
+ * a row holding its Values in the order of a RowLayout shared by the rows of a block
+ * Keys outside the layout are kept in a small extra map
+ */
+class ArrayRow internal constructor(
+    val layout: RowLayout,
+    /**
+     * Values by layout position, null where the row has no cell
+     */
+    private val cells: Array<Value?>
+) : AbstractMutableMap<String, Value>() {
+
+    constructor(layout: RowLayout) : this(layout, arrayOfNulls(layout.size))
+
+    private var extra: LinkedHashMap<String, Value>? = null
+
+    /**
+     * returns the Value at a layout position, or null
+     */
+    operator fun get(index: Int): Value? = cells[index]
+
+    override fun get(key: String): Value? {
+        val i = layout.indexOf(key)
+        return if (i >= 0) cells[i] else extra?.get(key)
+    }
+
+    override fun containsKey(key: String): Boolean = get(key) != null
+
+    override val size: Int
+        get() {
+            var n = extra?.size ?: 0
+            for (v in cells) {
+                if (v != null) n++
+            }
+            return n
+        }
+
+    override fun isEmpty(): Boolean = size == 0
+
+    override fun put(key: String, value: Value): Value? {
+        val i = layout.indexOf(key)
+        if (i < 0) {
+            return (extra ?: LinkedHashMap<String, Value>().also { extra = it }).put(key, value)
+        }
+        val old = cells[i]
+        cells[i] = value
+        return old
+    }
+
+    override fun remove(key: String): Value? {
+        val i = layout.indexOf(key)
+        if (i < 0) {
+            return extra?.remove(key)
+        }
+        val old = cells[i]
+        cells[i] = null
+        return old
+    }
+
+    override fun clear() {
+        cells.fill(null)
+        extra = null
+    }
+
+    /**
+     * adds the row to a retained memory estimate, counting the layout once
+     */
+    internal fun estimate(m: MemoryEstimate): Long {
+        var n = MemoryEstimate.shell(5) + MemoryEstimate.array(cells.size) + m.layout(layout)
+        for (v in cells) n += m.value(v)
+        extra?.let { n += m.row(it) }
+        return n
+    }
+
+    override val entries: MutableSet<MutableMap.MutableEntry<String, Value>>
+        get() = Entries()
+
+    private inner class Entries : AbstractMutableSet<MutableMap.MutableEntry<String, Value>>() {
+
+        override val size: Int get() = this@ArrayRow.size
+
+        override fun add(element: MutableMap.MutableEntry<String, Value>): Boolean = put(element.key, element.value) != element.value
+
+        override fun iterator(): MutableIterator<MutableMap.MutableEntry<String, Value>> = EntryIterator()
+    }
+
+    private inner class EntryIterator : MutableIterator<MutableMap.MutableEntry<String, Value>> {
+
+        private var next = advance(0)
+        private var last = -1
+        private var extraIterator: MutableIterator<MutableMap.MutableEntry<String, Value>>? = null
+
+        private fun advance(from: Int): Int {
+            var i = from
+            while (i < cells.size && cells[i] == null) i++
+            return i
+        }
+
+        private fun extraIterator(): MutableIterator<MutableMap.MutableEntry<String, Value>>? =
+            extraIterator ?: extra?.entries?.iterator()?.also { extraIterator = it }
+
+        override fun hasNext(): Boolean = next < cells.size || extraIterator()?.hasNext() == true
+
+        override fun next(): MutableMap.MutableEntry<String, Value> {
+            if (next < cells.size) {
+                last = next
+                next = advance(next + 1)
+                return Entry(last)
+            }
+            last = -1
+            return extraIterator()?.next() ?: throw NoSuchElementException()
+        }
+
+        override fun remove() {
+            if (last >= 0) {
+                cells[last] = null
+                last = -1
+            } else {
+                extraIterator!!.remove()
+            }
+        }
+    }
+
+    private inner class Entry(private val index: Int) : MutableMap.MutableEntry<String, Value> {
+
+        override val key: String get() = layout.names[index]
+
+        override val value: Value get() = cells[index]!!
+
+        override fun setValue(newValue: Value): Value {
+            val old = cells[index]!!
+            cells[index] = newValue
+            return old
+        }
+
+        override fun equals(other: Any?): Boolean = other is Map.Entry<*, *> && other.key == key && other.value == value
+
+        override fun hashCode(): Int = key.hashCode() xor value.hashCode()
+
+        override fun toString(): String = "$key=$value"
+    }
+
+}
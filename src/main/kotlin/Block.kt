@@ -1,5 +1,7 @@
 package com.rarnu.ison
 
+import java.util.Collections
+
 /**
  * represents an ISON block (table or object)
  */
@@ -26,11 +28,108 @@ data class Block @JvmOverloads constructor(
     var summaryRow: Row? = null
 ) {
 
+    /**
+     * Field positions and names, kept while fields is the same list of the same size
+     */
+    private var index: HashMap<String, Int>? = null
+    private var indexed: List<FieldInfo>? = null
+    private var indexedSize = 0
+    private var names: List<String>? = null
+
     /**
      * adds a field to the block
      */
     fun addField(name: String, typeHint: String) {
         fields.add(FieldInfo(name = name, typeHint = typeHint))
+        val m = index
+        if (m != null && indexed === fields && indexedSize == fields.size - 1) {
+            m[name] = indexedSize
+            indexedSize++
+            names = null
+        }
+    }
+
+    /**
+     * renames a field, renames made through fields directly are not seen by fieldIndex
+     */
+    fun renameField(i: Int, name: String) {
+        fields[i].name = name
+        index = null
+    }
+
+    /**
+     * returns the position of a field in fields, or -1
+     * Of fields sharing a name the last one wins, as it does in a Row map
+     */
+    fun fieldIndex(name: String): Int = index()[name] ?: -1
+
+    /**
+     * returns a view of a field's values in row order (missing cells read as null), or null for an unknown field
+     */
+    fun column(name: String): List<Value>? {
+        if (fieldIndex(name) < 0) {
+            return null
+        }
+        val slot = Slot(name)
+        return object : AbstractList<Value>() {
+            override val size: Int get() = rows.size
+            override fun get(index: Int): Value = slot[rows[index]] ?: Value.NULL()
+        }
+    }
+
+    /**
+     * copies a field into a long array (floats truncated, bools 1 or 0), or null for an unknown field
+     */
+    @JvmOverloads
+    fun longColumn(name: String, missing: Long = 0L): LongArray? {
+        if (fieldIndex(name) < 0) {
+            return null
+        }
+        val slot = Slot(name)
+        return LongArray(rows.size) { i ->
+            val v = slot[rows[i]]
+            when (v?.type) {
+                ValueType.TypeInt -> v.intVal
+                ValueType.TypeFloat -> v.floatVal.toLong()
+                ValueType.TypeBool -> if (v.boolVal) 1L else 0L
+                else -> missing
+            }
+        }
+    }
+
+    /**
+     * copies a field into a double array (bools 1 or 0, others missing), or null for an unknown field
+     */
+    @JvmOverloads
+    fun doubleColumn(name: String, missing: Double = Double.NaN): DoubleArray? {
+        if (fieldIndex(name) < 0) {
+            return null
+        }
+        val slot = Slot(name)
+        return DoubleArray(rows.size) { i ->
+            val v = slot[rows[i]]
+            when (v?.type) {
+                ValueType.TypeInt -> v.intVal.toDouble()
+                ValueType.TypeFloat -> v.floatVal
+                ValueType.TypeBool -> if (v.boolVal) 1.0 else 0.0
+                else -> missing
+            }
+        }
+    }
+
+    private fun index(): HashMap<String, Int> {
+        val m = index
+        return if (m != null && indexed === fields && indexedSize == fields.size) m else rebuildIndex()
+    }
+
+    private fun rebuildIndex(): HashMap<String, Int> {
+        val m = HashMap<String, Int>(fields.size * 2)
+        fields.forEachIndexed { i, f -> m[f.name] = i }
+        index = m
+        indexed = fields
+        indexedSize = fields.size
+        names = null
+        return m
     }
 
     /**
@@ -43,7 +142,21 @@ data class Block @JvmOverloads constructor(
     /**
      * returns the field names in order
      */
-    fun getFieldNames(): List<String> = fields.map { it.name }
+    fun getFieldNames(): List<String> {
+        index()
+        return names ?: Collections.unmodifiableList(fields.map { it.name }).also { names = it }
+    }
+
+    /**
+     * estimates the retained heap in bytes from sampleRows rows of a larger block (0 measures every row)
+     */
+    @JvmOverloads
+    fun estimateRetainedBytes(sampleRows: Int = 10_000): Long = MemoryEstimate().block(this, sampleRows)
+
+    /**
+     * returns an immutable copy of the block that may be shared between threads (see FrozenBlock)
+     */
+    fun freeze(): FrozenBlock = FrozenBlock.of(this)
 
     /**
      * converts the block to a map representation
@@ -66,4 +179,25 @@ data class Block @JvmOverloads constructor(
         return result
     }
 
+    /**
+     * looks up a field in rows, resolving its position once per RowLayout
+     */
+    private class Slot(private val name: String) {
+
+        @Volatile
+        private var cached: Pair<RowLayout, Int>? = null
+
+        operator fun get(row: Row): Value? {
+            if (row !is ArrayRow) {
+                return row[name]
+            }
+            var c = cached
+            if (c == null || c.first !== row.layout) {
+                c = row.layout to row.layout.indexOf(name)
+                cached = c
+            }
+            return if (c.second >= 0) row[c.second] else row[name]
+        }
+    }
+
 }
\ No newline at end of file
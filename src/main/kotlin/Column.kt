@@ -0,0 +1,121 @@
+package com.rarnu.ison
+
+import java.util.BitSet
+
+/**
+ * a column of a ColumnarBlock, cells are kept in primitive arrays with bitmaps for nulls and missing cells
+ */
+sealed class Column(
+    /**
+     * Field the column holds
+     */
+    val field: FieldInfo,
+    /**
+     * Number of rows
+     */
+    val size: Int,
+    private val nulls: BitSet,
+    private val missing: BitSet
+) {
+
+    /**
+     * returns true if the cell is a null (~, null, NULL)
+     */
+    fun isNull(row: Int): Boolean = nulls.get(row)
+
+    /**
+     * returns true if the row has no cell for the column (the row ended early)
+     */
+    fun isMissing(row: Int): Boolean = missing.get(row)
+
+    /**
+     * returns the cell as a Value, or null if it is missing
+     */
+    operator fun get(row: Int): Value? {
+        if (row !in 0 until size) {
+            throw IndexOutOfBoundsException("row $row of $size")
+        }
+        return when {
+            missing.get(row) -> null
+            nulls.get(row) -> Value.NULL()
+            else -> value(row)
+        }
+    }
+
+    /**
+     * returns the non-null cell of a present row as a Value
+     */
+    protected abstract fun value(row: Int): Value
+}
+
+/**
+ * an integer column
+ */
+class LongColumn internal constructor(field: FieldInfo, size: Int, nulls: BitSet, missing: BitSet, private val values: LongArray) :
+    Column(field, size, nulls, missing) {
+
+    fun getLong(row: Int): Long = values[row]
+
+    override fun value(row: Int): Value = Value.INT(values[row])
+}
+
+/**
+ * a float column, integer cells are stored widened and still read as integer Values
+ */
+class DoubleColumn internal constructor(
+    field: FieldInfo, size: Int, nulls: BitSet, missing: BitSet, private val values: DoubleArray,
+    /**
+     * Rows whose cell was an integer
+     */
+    private val ints: BitSet
+) : Column(field, size, nulls, missing) {
+
+    fun getDouble(row: Int): Double = values[row]
+
+    override fun value(row: Int): Value = if (ints.get(row)) Value.INT(values[row].toLong()) else Value.FLOAT(values[row])
+}
+
+/**
+ * a boolean column packed into a bitset
+ */
+class BoolColumn internal constructor(field: FieldInfo, size: Int, nulls: BitSet, missing: BitSet, private val values: BitSet) :
+    Column(field, size, nulls, missing) {
+
+    fun getBoolean(row: Int): Boolean = values.get(row)
+
+    override fun value(row: Int): Value = Value.BOOL(values.get(row))
+}
+
+/**
+ * a string column coded against a dictionary of its distinct strings
+ */
+class StringColumn internal constructor(
+    field: FieldInfo,
+    size: Int,
+    nulls: BitSet,
+    missing: BitSet,
+    /**
+     * Distinct strings in order of first appearance
+     */
+    val dictionary: Array<String>,
+    private val codes: IntArray
+) : Column(field, size, nulls, missing) {
+
+    /**
+     * returns the dictionary index of a cell
+     */
+    fun code(row: Int): Int = codes[row]
+
+    fun getString(row: Int): String = dictionary[codes[row]]
+
+    override fun value(row: Int): Value = Value.STRING(dictionary[codes[row]])
+}
+
+/**
+ * a column whose cells do not share one type (e.g., references or mixed ints and strings), kept as Values
+ */
+class ValueColumn internal constructor(field: FieldInfo, size: Int, nulls: BitSet, missing: BitSet, private val values: Array<Value?>) :
+    Column(field, size, nulls, missing) {
+
+    override fun value(row: Int): Value = values[row]!!
+}
@@ -0,0 +1,207 @@
+package com.rarnu.ison
+
+import java.util.BitSet
+
+/**
+ * collects the cells of one column in storage picked by the first non-null cell
+ * Integers among floats are widened if exact, any other mix falls back to a ValueColumn
+ */
+internal class ColumnBuilder(private val field: FieldInfo) {
+
+    private enum class Mode { Undecided, Long, Double, Bool, String, Values }
+
+    private var mode = Mode.Undecided
+    private var size = 0
+    private val nulls = BitSet()
+    private val missing = BitSet()
+    private var longs = LongArray(0)
+    private var doubles = DoubleArray(0)
+    private val ints = BitSet()
+    private val bools = BitSet()
+    private var codes = IntArray(0)
+    private val dictionary = mutableListOf<String>()
+    private val codeOf = HashMap<String, Int>()
+    private var values = arrayOfNulls<Value>(0)
+
+    /**
+     * appends a cell from its raw token span, decoding numbers and strings straight into the arrays
+     */
+    fun add(text: CharSequence, from: Int, to: Int, hint: TypeHint, buffer: StringBuilder?) {
+        val row = size
+        when (mode) {
+            Mode.Long -> if (hint.isSpanLong(text, from, to)) {
+                longs = grow(longs, row)
+                longs[row] = TypeHint.spanLong(text, from, to)
+                size++
+                return
+            }
+
+            Mode.Double -> {
+                if (hint.isSpanLong(text, from, to)) {
+                    val v = TypeHint.spanLong(text, from, to)
+                    if (exact(v)) {
+                        doubles = grow(doubles, row)
+                        doubles[row] = v.toDouble()
+                        ints.set(row)
+                        size++
+                        return
+                    }
+                }
+                val d = hint.spanDouble(text, from, to, buffer)
+                if (!d.isNaN()) {
+                    doubles = grow(doubles, row)
+                    doubles[row] = d
+                    size++
+                    return
+                }
+            }
+
+            Mode.String -> hint.spanString(text, from, to, buffer)?.let {
+                codes = grow(codes, row)
+                codes[row] = code(it)
+                size++
+                return
+            }
+
+            else -> {}
+        }
+        add(hint.decode(text, from, to, buffer))
+    }
+
+    /**
+     * appends a cell, null for a missing cell
+     */
+    fun add(v: Value?) {
+        val row = size++
+        if (v == null) {
+            missing.set(row)
+            return
+        }
+        if (v.type == ValueType.TypeNull) {
+            nulls.set(row)
+            return
+        }
+        if (mode == Mode.Undecided) {
+            mode = when (v.type) {
+                ValueType.TypeInt -> Mode.Long
+                ValueType.TypeFloat -> Mode.Double
+                ValueType.TypeBool -> Mode.Bool
+                ValueType.TypeString -> Mode.String
+                else -> Mode.Values
+            }
+        }
+        if (mode == Mode.Long && v.type == ValueType.TypeFloat && widens()) {
+            toDoubles()
+        }
+        if (!fits(v)) {
+            toValues()
+        }
+        when (mode) {
+            Mode.Long -> {
+                longs = grow(longs, row)
+                longs[row] = v.intVal
+            }
+
+            Mode.Double -> {
+                doubles = grow(doubles, row)
+                if (v.type == ValueType.TypeInt) {
+                    doubles[row] = v.intVal.toDouble()
+                    ints.set(row)
+                } else {
+                    doubles[row] = v.floatVal
+                }
+            }
+
+            Mode.Bool -> bools.set(row, v.boolVal)
+            Mode.String -> {
+                codes = grow(codes, row)
+                codes[row] = code(v.stringVal)
+            }
+
+            else -> {
+                if (values.size <= row) {
+                    values = values.copyOf(maxOf(16, row * 2))
+                }
+                values[row] = v
+            }
+        }
+    }
+
+    private fun code(s: String): Int = codeOf.getOrPut(s) {
+        dictionary.add(s)
+        dictionary.size - 1
+    }
+
+    private fun fits(v: Value): Boolean = when (mode) {
+        Mode.Long -> v.type == ValueType.TypeInt
+        Mode.Double -> v.type == ValueType.TypeFloat || (v.type == ValueType.TypeInt && exact(v.intVal))
+        Mode.Bool -> v.type == ValueType.TypeBool
+        Mode.String -> v.type == ValueType.TypeString
+        else -> true
+    }
+
+    /**
+     * returns true if every integer collected so far converts to a double exactly
+     */
+    private fun widens(): Boolean {
+        for (row in 0 until minOf(size - 1, longs.size)) {
+            if (!exact(longs[row])) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private fun exact(v: Long): Boolean = v in -MAX_EXACT..MAX_EXACT
+
+    /**
+     * converts the integers collected so far into doubles
+     */
+    private fun toDoubles() {
+        doubles = DoubleArray(maxOf(16, size * 2))
+        for (row in 0 until minOf(size - 1, longs.size)) {
+            doubles[row] = longs[row].toDouble()
+        }
+        ints.set(0, size - 1)
+        longs = LongArray(0)
+        mode = Mode.Double
+    }
+
+    /**
+     * converts the cells collected so far into Values
+     */
+    private fun toValues() {
+        val current = build()
+        values = arrayOfNulls(maxOf(16, size * 2))
+        for (row in 0 until size - 1) {
+            if (!current.isMissing(row) && !current.isNull(row)) {
+                values[row] = current[row]
+            }
+        }
+        mode = Mode.Values
+    }
+
+    fun build(): Column = when (mode) {
+        Mode.Long -> LongColumn(field, size, nulls, missing, longs.copyOf(size))
+        Mode.Double -> DoubleColumn(field, size, nulls, missing, doubles.copyOf(size), ints)
+        Mode.Bool -> BoolColumn(field, size, nulls, missing, bools)
+        Mode.String -> StringColumn(field, size, nulls, missing, dictionary.toTypedArray(), codes.copyOf(size))
+        // Only nulls and missing cells so far
+        Mode.Undecided -> ValueColumn(field, size, nulls, missing, arrayOfNulls(0))
+        Mode.Values -> ValueColumn(field, size, nulls, missing, values.copyOf(size))
+    }
+
+    private fun grow(a: LongArray, row: Int): LongArray = if (row < a.size) a else a.copyOf(maxOf(16, row * 2))
+
+    private fun grow(a: DoubleArray, row: Int): DoubleArray = if (row < a.size) a else a.copyOf(maxOf(16, row * 2))
+
+    private fun grow(a: IntArray, row: Int): IntArray = if (row < a.size) a else a.copyOf(maxOf(16, row * 2))
+
+    private companion object {
+        /**
+         * Integers up to this magnitude convert to a double exactly
+         */
+        const val MAX_EXACT = 1L shl 53
+    }
+
+}
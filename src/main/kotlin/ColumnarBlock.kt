@@ -0,0 +1,127 @@
+package com.rarnu.ison
+
+/**
+ * a block stored by column (see Column), rows are read through views
+ */
+class ColumnarBlock internal constructor(
+    val kind: String,
+    val name: String,
+    /**
+     * Field definitions in order, one column per field
+     */
+    val fields: List<FieldInfo>,
+    val columns: List<Column>,
+    /**
+     * Number of data rows
+     */
+    val size: Int,
+    /**
+     * Summary row after ---
+     */
+    val summaryRow: Row?
+) {
+
+    /**
+     * Column indexes per field name in field order, names in order of first appearance
+     */
+    private val indexOf: Map<String, IntArray> = LinkedHashMap<String, IntArray>().also { m ->
+        fields.forEachIndexed { i, f -> m[f.name] = (m[f.name] ?: IntArray(0)) + i }
+    }
+
+    /**
+     * returns the column of a field, or null, duplicate names as in Block.fieldIndex
+     */
+    fun column(name: String): Column? = indexOf[name]?.let { columns[it.last()] }
+
+    /**
+     * returns the cell a Row map would hold for the field, or null
+     */
+    private fun cell(c: IntArray, row: Int): Value? {
+        for (i in c.indices.reversed()) {
+            columns[c[i]][row]?.let { return it }
+        }
+        return null
+    }
+
+    /**
+     * returns a view of a data row, modifying the view does not change the block
+     */
+    fun row(i: Int): Row {
+        if (i !in 0 until size) {
+            throw IndexOutOfBoundsException("row $i of $size")
+        }
+        return ColumnRow(i)
+    }
+
+    /**
+     * returns views of all data rows
+     */
+    fun rows(): List<Row> = object : AbstractList<Row>() {
+        override val size: Int get() = this@ColumnarBlock.size
+        override fun get(index: Int): Row = row(index)
+    }
+
+    /**
+     * converts the block to a row-based Block
+     */
+    fun toBlock(): Block {
+        val b = Block(kind, name)
+        b.fields.addAll(fields)
+        for (i in 0 until size) {
+            b.addRow(LinkedHashMap(row(i)))
+        }
+        b.summaryRow = summaryRow
+        return b
+    }
+
+    private inner class ColumnRow(private val index: Int) : AbstractMutableMap<String, Value>() {
+
+        private var materialized: MutableMap<String, Value>? = null
+
+        private fun materialize(): MutableMap<String, Value> {
+            var m = materialized
+            if (m == null) {
+                m = LinkedHashMap()
+                for ((name, c) in indexOf) {
+                    cell(c, index)?.let { m[name] = it }
+                }
+                materialized = m
+            }
+            return m
+        }
+
+        override fun get(key: String): Value? {
+            materialized?.let { return it[key] }
+            val c = indexOf[key] ?: return null
+            return cell(c, index)
+        }
+
+        override fun containsKey(key: String): Boolean = get(key) != null
+
+        override val size: Int get() = materialize().size
+
+        override fun put(key: String, value: Value): Value? = materialize().put(key, value)
+
+        override val entries: MutableSet<MutableMap.MutableEntry<String, Value>>
+            get() = materialize().entries
+
+    }
+
+    companion object {
+
+        /**
+         * converts a row-based Block
+         */
+        @JvmStatic
+        fun of(block: Block): ColumnarBlock {
+            val builders = block.fields.map { ColumnBuilder(it) }
+            for (row in block.rows) {
+                for (i in builders.indices) {
+                    builders[i].add(row[block.fields[i].name])
+                }
+            }
+            return ColumnarBlock(block.kind, block.name, block.fields.toList(), builders.map { it.build() }, block.rows.size, block.summaryRow)
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.rarnu.ison
+
+/**
+ * builds ColumnarBlocks from parse callbacks, cells go straight into their columns without a Row per line
+ */
+internal class ColumnarBuilder(
+    /**
+     * Merge rows into an existing block of the same name (ISONL) instead of replacing it (ISON)
+     */
+    private val merge: Boolean,
+    /**
+     * Per block name, the columns to keep
+     */
+    private val columns: Map<String, Set<String>> = emptyMap()
+) : IsonHandler {
+
+    private class Pending(val kind: String, val name: String, val fields: List<FieldInfo>, val index: IntArray) {
+        val builders = fields.map { ColumnBuilder(it) }
+        var size = 0
+        var summaryRow: Row? = null
+    }
+
+    private val pending = LinkedHashMap<String, Pending>()
+    private var current: Pending? = null
+
+    override fun onBlock(kind: String, name: String, fields: List<FieldInfo>) {
+        if (merge) {
+            pending[name]?.let {
+                current = it
+                return
+            }
+        }
+        val wanted = columns[name]
+        val index = fields.indices.filter { wanted == null || fields[it].name in wanted }.toIntArray()
+        val p = Pending(kind, name, index.map { fields[it] }, index)
+        // A later block of the same name replaces an earlier one in place, as in Document
+        pending[name] = p
+        current = p
+    }
+
+    override fun onRow(block: String, row: RowView) {
+        val p = current!!
+        for (c in p.index.indices) {
+            row.addTo(p.index[c], p.builders[c])
+        }
+        p.size++
+    }
+
+    override fun onSummary(block: String, row: RowView) {
+        val p = current!!
+        val summary: Row = mutableMapOf()
+        for (c in p.index.indices) {
+            row[p.index[c]]?.let { summary[p.fields[c].name] = it }
+        }
+        p.summaryRow = summary
+    }
+
+    /**
+     * returns the built blocks by name in order of appearance
+     */
+    fun blocks(): Map<String, ColumnarBlock> {
+        val result = LinkedHashMap<String, ColumnarBlock>()
+        for ((name, p) in pending) {
+            result[name] = ColumnarBlock(p.kind, name, p.fields, p.builders.map { it.build() }, p.size, p.summaryRow)
+        }
+        return result
+    }
+
+}
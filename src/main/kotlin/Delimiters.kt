@@ -0,0 +1,60 @@
+package com.rarnu.ison
+
+/**
+ * finds the next char that can change tokenizing state (space, tab, quote or backslash)
+ */
+internal interface DelimiterFinder {
+
+    /**
+     * returns the index of the first space, tab, quote or backslash in chars[from, to), or to
+     */
+    fun find(chars: CharArray, from: Int, to: Int): Int
+
+    /**
+     * returns the index of the first delimiter in the UTF-8 bytes[from, to), or to
+     * Bytes of multibyte sequences are never ASCII and cannot match
+     */
+    fun find(bytes: ByteArray, from: Int, to: Int): Int
+
+}
+
+/**
+ * jumps from a position of a text to its next delimiter, see DelimiterFinder
+ */
+internal fun interface DelimiterSkip {
+
+    fun skip(from: Int, to: Int): Int
+
+}
+
+/**
+ * selects the delimiter finder used by array-backed scanners
+ */
+internal object Delimiters {
+
+    private const val VECTOR_MODULE = "jdk.incubator.vector"
+    private const val VECTOR_CLASS = "com.rarnu.ison.VectorDelimiters"
+
+    /**
+     * The Vector API finder, or null without --add-modules jdk.incubator.vector or with -Dison.vector=false
+     */
+    @JvmField
+    val finder: DelimiterFinder? = load()
+
+    private fun load(): DelimiterFinder? {
+        if (System.getProperty("ison.vector") == "false" || !ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent) {
+            return null
+        }
+        return try {
+            val finder = Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance() as DelimiterFinder
+            // Links every incubator call now instead of failing mid-parse
+            finder.find(CharArray(64), 0, 64)
+            finder.find(ByteArray(64), 0, 64)
+            finder
+        } catch (e: Throwable) {
+            // Not packaged or an incompatible incubator API
+            null
+        }
+    }
+
+}
@@ -28,6 +28,17 @@ data class Document @JvmOverloads constructor(
      */
     fun get(name: String): Block? = blocks[name]
 
+    /**
+     * estimates the retained heap in bytes, counting shared objects once (see Block.estimateRetainedBytes)
+     */
+    @JvmOverloads
+    fun estimateRetainedBytes(sampleRows: Int = 10_000): Long = MemoryEstimate().document(this, sampleRows)
+
+    /**
+     * returns an immutable copy of the document that may be shared between threads (see FrozenDocument)
+     */
+    fun freeze(): FrozenDocument = FrozenDocument.of(this)
+
     /**
      * converts the document to a map representation
      */
@@ -0,0 +1,94 @@
+package com.rarnu.ison
+
+/**
+ * builds a Document from parse callbacks
+ */
+internal class DocumentBuilder(
+    /**
+     * Merge rows into an existing block of the same name (ISONL) instead of replacing it (ISON)
+     */
+    private val merge: Boolean,
+    /**
+     * Keep rows as LazyRow (token spans) instead of decoding every cell
+     */
+    private val lazyValues: Boolean = false,
+    /**
+     * Per block name, the columns to keep
+     */
+    private val columns: Map<String, Set<String>> = emptyMap(),
+    /**
+     * Per column, the number of distinct tokens whose Value is shared, 0 for none
+     */
+    private val dedupLimit: Int = 0
+) : IsonHandler {
+
+    private var lazyBlock = false
+    private var mask: BooleanArray? = null
+    private var blockFields: List<FieldInfo> = emptyList()
+    private var blockHints: Array<TypeHint> = emptyArray()
+    private var layout = RowLayout(emptyList())
+    private var slots = IntArray(0)
+    private val blockLayouts = mutableMapOf<String, RowLayout>()
+    private var dicts: Array<ValueDict?>? = null
+    private val blockDicts = mutableMapOf<Pair<String, List<FieldInfo>>, Array<ValueDict?>?>()
+
+    val doc = Document()
+
+    /**
+     * The block receiving rows
+     */
+    var block: Block? = null
+        private set
+
+    override fun onBlock(kind: String, name: String, fields: List<FieldInfo>) {
+        val wanted = columns[name]
+        mask = wanted?.let { w -> BooleanArray(fields.size) { fields[it].name in w } }
+        blockFields = if (wanted == null) fields else fields.filter { it.name in wanted }
+        blockHints = TypeHint.compile(blockFields)
+        // Rows of a block share one layout, also across resumed ISONL lines
+        layout = if (merge) blockLayouts.getOrPut(name) { RowLayout.of(blockFields) } else RowLayout.of(blockFields)
+        slots = RowView.slotsOf(fields, layout, mask)
+        // Duplicate field names overwrite each other in a map, only unique ones can be read by span
+        lazyBlock = lazyValues && blockFields.distinctBy { it.name }.size == blockFields.size
+        // ISONL blocks keep their dictionaries when their lines resume, a repeated ISON block replaces
+        // the earlier one and may declare other fields, so it starts with its own
+        dicts = if (merge) blockDicts.getOrPut(name to fields) { newDicts() } else newDicts()
+        if (merge) {
+            val existing = doc.get(name)
+            if (existing != null) {
+                block = existing
+                return
+            }
+        }
+        val b = Block(kind, name)
+        b.fields.addAll(blockFields)
+        doc.addBlock(b)
+        block = b
+    }
+
+    override fun onRow(block: String, row: RowView) {
+        this.block!!.addRow(rowOf(row))
+    }
+
+    /**
+     * creates the per column dictionaries for the current block, null if deduplication is off
+     */
+    fun newDicts(): Array<ValueDict?>? {
+        if (dedupLimit <= 0 || lazyBlock) {
+            return null
+        }
+        val m = mask
+        return Array(m?.size ?: blockFields.size) { if (m == null || m[it]) ValueDict(dedupLimit) else null }
+    }
+
+    /**
+     * converts a view into a stored row of the current block
+     */
+    fun rowOf(row: RowView, dicts: Array<ValueDict?>? = this.dicts): Row =
+        if (lazyBlock) row.toLazyRow(layout, blockHints, mask) else row.toRow(layout, slots, dicts)
+
+    override fun onSummary(block: String, row: RowView) {
+        this.block!!.summaryRow = row.toRow(layout, slots, null)
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.rarnu.ison
+
+import java.util.Collections
+
+/**
+ * an immutable block that may be shared between threads without locks or copies
+ * Cells are kept in one row-major array over a RowLayout
+ */
+class FrozenBlock private constructor(
+    val kind: String,
+    val name: String,
+    private val names: Array<String>,
+    private val hints: Array<String>,
+    /**
+     * Field names followed by the keys rows hold outside the fields
+     */
+    private val layout: RowLayout,
+    /**
+     * Row-major cells, layout.size per row, null where a row has no cell
+     */
+    private val cells: Array<Value?>,
+    private val summary: Array<Value?>?,
+    /**
+     * Number of data rows
+     */
+    val size: Int
+) {
+
+    /**
+     * Field position per name, see Block.fieldIndex
+     */
+    private val fieldIndex: Map<String, Int> = HashMap<String, Int>(names.size * 2).also { m ->
+        names.forEachIndexed { i, n -> m[n] = i }
+    }
+
+    /**
+     * Field names in order
+     */
+    val fieldNames: List<String> = Collections.unmodifiableList(names.asList())
+
+    /**
+     * returns copies of the field definitions in order
+     */
+    val fields: List<FieldInfo> get() = names.indices.map { FieldInfo(names[it], hints[it]) }
+
+    /**
+     * Summary row after ---, or null
+     */
+    val summaryRow: Map<String, Value>? = summary?.let { FrozenRow(it, 0) }
+
+    /**
+     * returns the position of a field in fields, or -1
+     */
+    fun fieldIndex(name: String): Int = fieldIndex[name] ?: -1
+
+    /**
+     * returns the value of a cell, or null if the row has no such cell
+     */
+    operator fun get(row: Int, name: String): Value? {
+        checkRow(row)
+        val c = layout.indexOf(name)
+        return if (c < 0) null else cells[row * layout.size + c]
+    }
+
+    /**
+     * returns a read-only view of a data row
+     */
+    fun row(i: Int): Map<String, Value> {
+        checkRow(i)
+        return FrozenRow(cells, i * layout.size)
+    }
+
+    /**
+     * returns read-only views of all data rows
+     */
+    fun rows(): List<Map<String, Value>> = object : AbstractList<Map<String, Value>>() {
+        override val size: Int get() = this@FrozenBlock.size
+        override fun get(index: Int): Map<String, Value> = row(index)
+    }
+
+    /**
+     * returns a view of a field's values in row order (missing cells read as null), or null for an unknown field
+     */
+    fun column(name: String): List<Value>? {
+        if (fieldIndex(name) < 0) {
+            return null
+        }
+        val c = layout.indexOf(name)
+        return object : AbstractList<Value>() {
+            override val size: Int get() = this@FrozenBlock.size
+            override fun get(index: Int): Value = cells[index * layout.size + c] ?: Value.NULL()
+        }
+    }
+
+    /**
+     * returns a mutable copy of the block
+     */
+    fun toBlock(): Block {
+        val b = Block(kind, name)
+        names.indices.forEach { b.addField(names[it], hints[it]) }
+        val rowLayout = RowLayout(layout.names.asList())
+        val width = layout.size
+        for (i in 0 until size) {
+            b.addRow(ArrayRow(rowLayout, cells.copyOfRange(i * width, (i + 1) * width)))
+        }
+        b.summaryRow = summary?.let { ArrayRow(rowLayout, it.copyOf()) }
+        return b
+    }
+
+    private fun checkRow(i: Int) {
+        if (i !in 0 until size) {
+            throw IndexOutOfBoundsException("row $i of $size")
+        }
+    }
+
+    private inner class FrozenRow(private val row: Array<Value?>, private val offset: Int) : AbstractMap<String, Value>() {
+
+        override fun get(key: String): Value? {
+            val c = layout.indexOf(key)
+            return if (c < 0) null else row[offset + c]
+        }
+
+        override fun containsKey(key: String): Boolean = get(key) != null
+
+        override val entries: Set<Map.Entry<String, Value>>
+            get() = object : AbstractSet<Map.Entry<String, Value>>() {
+                override val size: Int get() = (0 until layout.size).count { row[offset + it] != null }
+
+                override fun iterator(): Iterator<Map.Entry<String, Value>> = (0 until layout.size).asSequence()
+                    .filter { row[offset + it] != null }
+                    .map { java.util.AbstractMap.SimpleImmutableEntry(layout.names[it], row[offset + it]!!) }
+                    .iterator()
+            }
+    }
+
+    companion object {
+
+        /**
+         * freezes a copy of a block, decoding lazy rows and sharing its immutable Values
+         */
+        @JvmStatic
+        fun of(block: Block): FrozenBlock {
+            val names = block.fields.map { it.name }
+            val keys = LinkedHashSet(names)
+            for (row in block.rows) keys.addAll(row.keys)
+            block.summaryRow?.let { keys.addAll(it.keys) }
+            val layout = RowLayout(keys.toList())
+            val width = layout.size
+            val cells = arrayOfNulls<Value>(block.rows.size * width)
+            block.rows.forEachIndexed { i, row -> fill(row, layout, cells, i * width) }
+            val summary = block.summaryRow?.let { row -> arrayOfNulls<Value>(width).also { fill(row, layout, it, 0) } }
+            return FrozenBlock(
+                block.kind, block.name, names.toTypedArray(), block.fields.map { it.typeHint }.toTypedArray(),
+                layout, cells, summary, block.rows.size
+            )
+        }
+
+        private fun fill(row: Row, layout: RowLayout, into: Array<Value?>, offset: Int) {
+            for ((k, v) in row) {
+                into[offset + layout.indexOf(k)] = v
+            }
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.rarnu.ison
+
+import java.util.Collections
+
+/**
+ * an immutable document of FrozenBlocks that may be shared between threads, changed through a Builder
+ */
+class FrozenDocument private constructor(private val blocks: Array<FrozenBlock>) {
+
+    private val index: Map<String, FrozenBlock> = HashMap<String, FrozenBlock>(blocks.size * 2).also { m ->
+        blocks.forEach { m[it.name] = it }
+    }
+
+    /**
+     * Block names in order of appearance
+     */
+    val names: List<String> = Collections.unmodifiableList(blocks.map { it.name })
+
+    /**
+     * returns a block by name
+     */
+    fun get(name: String): FrozenBlock? = index[name]
+
+    /**
+     * returns the blocks in order
+     */
+    fun blocks(): List<FrozenBlock> = Collections.unmodifiableList(blocks.asList())
+
+    /**
+     * returns a mutable copy of the document
+     */
+    fun toDocument(): Document {
+        val doc = Document()
+        blocks.forEach { doc.addBlock(it.toBlock()) }
+        return doc
+    }
+
+    /**
+     * returns a builder that starts from the blocks of this document
+     */
+    fun toBuilder(): Builder = Builder(this)
+
+    /**
+     * collects changes to a frozen document, blocks that are not edited are reused by build
+     */
+    class Builder internal constructor(from: FrozenDocument?) {
+
+        /**
+         * FrozenBlock or Block by name, in order of appearance
+         */
+        private val blocks = LinkedHashMap<String, Any>()
+
+        constructor() : this(null)
+
+        init {
+            from?.blocks?.forEach { blocks[it.name] = it }
+        }
+
+        /**
+         * returns a mutable copy of a block to change in place, or null
+         */
+        fun edit(name: String): Block? {
+            val b = blocks[name]
+            if (b is FrozenBlock) {
+                return b.toBlock().also { blocks[name] = it }
+            }
+            return b as Block?
+        }
+
+        /**
+         * adds or replaces a block in place, the block is frozen by build
+         */
+        fun put(block: Block): Builder {
+            blocks[block.name] = block
+            return this
+        }
+
+        /**
+         * adds or replaces a frozen block
+         */
+        fun put(block: FrozenBlock): Builder {
+            blocks[block.name] = block
+            return this
+        }
+
+        fun remove(name: String): Builder {
+            blocks.remove(name)
+            return this
+        }
+
+        fun build(): FrozenDocument = FrozenDocument(blocks.values.map { if (it is Block) FrozenBlock.of(it) else it as FrozenBlock }.toTypedArray())
+    }
+
+    companion object {
+
+        /**
+         * freezes a copy of a document in doc.order, then any blocks missing from it
+         */
+        @JvmStatic
+        fun of(doc: Document): FrozenDocument {
+            val builder = Builder()
+            for (name in doc.order) {
+                doc.blocks[name]?.let { builder.put(it) }
+            }
+            for (block in doc.blocks.values) {
+                if (block.name !in doc.order) {
+                    builder.put(block)
+                }
+            }
+            return builder.build()
+        }
+
+        @JvmStatic
+        fun builder(): Builder = Builder()
+    }
+
+}
@@ -3,10 +3,16 @@
 package com.rarnu.ison
 
 import com.isyscore.kotlin.common.toObj
-import com.rarnu.ison.Parser.Companion.parseFieldDef
-import com.rarnu.ison.Parser.Companion.parseValue
-import com.rarnu.ison.Parser.Companion.tokenizeLine
 import java.io.File
+import java.io.InputStream
+import java.io.Reader
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.Charset
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import kotlin.io.path.reader
 import kotlin.collections.component1
 import kotlin.collections.component2
 
@@ -14,17 +20,217 @@ object ISON {
 
     const val VERSION = "1.0.0"
 
+    /**
+     * Largest region a single MappedByteBuffer can cover
+     */
+    private const val MAX_SEGMENT = Int.MAX_VALUE.toLong()
+
+    @JvmStatic
+    fun parse(text: String): Document = parse(text as CharSequence)
+
     @JvmStatic
-    fun parse(text: String): Document {
-        val p = Parser(text, splitLines(text), 0)
-        return p.parse()
+    fun parse(text: CharSequence): Document = Parser(text).parse()
+
+    /**
+     * returns default parse options
+     */
+    @JvmStatic
+    fun defaultParseOptions(): ParseOptions = ParseOptions(lazyValues = false)
+
+    /**
+     * parses ISON with options
+     */
+    @JvmStatic
+    fun parseWithOptions(text: CharSequence, opts: ParseOptions): Document = Parser(text, opts).parse()
+
+    /**
+     * parses ISON from a reader through a bounded buffer, the full text is never held in memory
+     */
+    @JvmStatic
+    fun parse(reader: Reader): Document = Parser(reader).parse()
+
+    /**
+     * parses ISON into column-stored blocks (primitive arrays instead of a map per row) by name
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun parseColumnar(text: CharSequence, opts: ParseOptions = ParseOptions()): Map<String, ColumnarBlock> = Parser(text, opts).parseColumnar()
+
+    @JvmStatic
+    @JvmOverloads
+    fun parseColumnar(reader: Reader, opts: ParseOptions = ParseOptions()): Map<String, ColumnarBlock> = Parser(reader, opts).parseColumnar()
+
+    /**
+     * parses ISON into handler callbacks without building a Document
+     */
+    @JvmStatic
+    fun parse(text: CharSequence, handler: IsonHandler) {
+        Parser(text).parse(handler)
+    }
+
+    /**
+     * parses ISON from a reader into handler callbacks without building a Document
+     */
+    @JvmStatic
+    fun parse(reader: Reader, handler: IsonHandler) {
+        Parser(reader).parse(handler)
     }
 
     @JvmStatic
     fun load(path: String): Document = load(File(path))
 
+    /**
+     * loads and parses an ISON file with options, lazyValues is ignored as the file is streamed
+     */
+    @JvmStatic
+    fun loadWithOptions(path: String, opts: ParseOptions): Document = loadWithOptions(File(path).toPath(), opts)
+
+    @JvmStatic
+    fun loadWithOptions(file: File, opts: ParseOptions): Document = loadWithOptions(file.toPath(), opts)
+
+    @JvmStatic
+    @JvmOverloads
+    fun loadWithOptions(path: Path, opts: ParseOptions, charset: Charset = Charsets.UTF_8): Document =
+        path.reader(charset).use { Parser(it, opts).parse() }
+
+    @JvmStatic
+    fun load(file: File): Document = load(file.toPath())
+
+    /**
+     * loads and parses an ISON file without reading it into memory first
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun load(path: Path, charset: Charset = Charsets.UTF_8): Document = path.reader(charset).use { parse(it) }
+
+    /**
+     * loads and parses ISON from a stream without reading it into memory first
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun load(input: InputStream, charset: Charset = Charsets.UTF_8): Document = parse(input.reader(charset))
+
+    /**
+     * maps an ISON file into memory and parses it in place, in segments split at block headers above 2 GB
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun mmap(path: Path, opts: ParseOptions = ParseOptions(lazyValues = true)): Document = mmap(path, opts, false, MAX_SEGMENT)
+
+    /**
+     * maps an ISONL file into memory and parses it in place, in segments split at line ends above 2 GB
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun mmapISONL(path: Path, opts: ParseOptions = ParseOptions(lazyValues = true)): Document = mmap(path, opts, true, MAX_SEGMENT)
+
+    internal fun mmap(path: Path, opts: ParseOptions, isonl: Boolean, segmentSize: Long): Document {
+        val builder = DocumentBuilder(merge = isonl, lazyValues = opts.lazyValues, columns = opts.columns, dedupLimit = opts.dedupLimit)
+        // ISONL blocks keep the fields of their first line across segments
+        val isonlBlocks = mutableMapOf<String, Pair<String, List<FieldInfo>>>()
+        segments(path, isonl, segmentSize) { buf, _ ->
+            val reader = IsonReader(Scanner(MappedText(buf)), isonl)
+            reader.isonlBlocks = isonlBlocks
+            val parser = Parser(reader, opts)
+            if (opts.parallel && !isonl) {
+                // Segments start at block headers, so their blocks can be parsed independently
+                val part = parser.parse()
+                part.order.forEach { builder.doc.addBlock(part.blocks[it]!!) }
+            } else {
+                parser.parse(builder)
+            }
+        }
+        return builder.doc
+    }
+
+    /**
+     * maps a file in segments of at most segmentSize bytes ending before a block header (ISON) or line (ISONL)
+     */
+    private fun segments(path: Path, isonl: Boolean, segmentSize: Long, action: (ByteBuffer, Long) -> Unit) {
+        FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+            val size = channel.size()
+            var start = 0L
+            while (start < size) {
+                var buf = channel.map(FileChannel.MapMode.READ_ONLY, start, minOf(segmentSize, size - start))
+                if (start + buf.limit() < size) {
+                    buf = buf.slice(0, segmentEnd(buf, isonl))
+                }
+                action(buf, start)
+                start += buf.limit()
+            }
+        }
+    }
+
+    /**
+     * scans an ISON file once and returns the byte range, field line and row count of each block
+     */
+    @JvmStatic
+    fun index(path: Path): IsonIndex = index(path, MAX_SEGMENT)
+
+    internal fun index(path: Path, segmentSize: Long): IsonIndex {
+        val modified = Files.getLastModifiedTime(path).toMillis()
+        val blocks = mutableListOf<BlockLocation>()
+        segments(path, false, segmentSize) { buf, start -> IsonIndex.scan(MappedText(buf), start, blocks) }
+        return IsonIndex(blocks, Files.size(path), modified)
+    }
+
+    /**
+     * opens an ISON file for reading single blocks, reusing the sidecar index while it is current
+     */
     @JvmStatic
-    fun load(file: File): Document = parse(file.readText())
+    @JvmOverloads
+    fun openIndexed(path: Path, sidecar: Path? = null, opts: ParseOptions = ParseOptions()): IndexedDocument {
+        var index = if (sidecar != null && Files.exists(sidecar)) IsonIndex.load(sidecar) else null
+        if (index == null || !index.isCurrent(path)) {
+            index = index(path)
+            sidecar?.let { index.save(it) }
+        }
+        return IndexedDocument(path, index, opts)
+    }
+
+    /**
+     * returns the length of the segment up to its last block header (ISON) or line (ISONL)
+     */
+    private fun segmentEnd(buf: ByteBuffer, isonl: Boolean): Int {
+        if (isonl) {
+            for (i in buf.limit() - 1 downTo 1) {
+                if (buf.get(i - 1) == '\n'.code.toByte()) {
+                    return i
+                }
+            }
+        } else {
+            // Segments start at a block, so a forward scan tells headers from field lines that look like one
+            val last = ParallelParser.blockStarts(MappedText(buf), 0, buf.limit()).lastOrNull { it.first > 0 }
+            if (last != null) {
+                return last.first
+            }
+        }
+        error("a single ${if (isonl) "line" else "block"} does not fit into a mapped segment")
+    }
+
+    /**
+     * creates a pull reader over ISON text
+     */
+    @JvmStatic
+    fun reader(text: CharSequence): IsonReader = IsonReader(text)
+
+    /**
+     * creates a pull reader over ISON from a reader
+     */
+    @JvmStatic
+    fun reader(reader: Reader): IsonReader = IsonReader(reader)
+
+    /**
+     * creates a pull reader over ISONL text
+     */
+    @JvmStatic
+    fun readerISONL(text: CharSequence): IsonReader = IsonReader(Scanner(text), isonl = true)
+
+    /**
+     * creates a pull reader over ISONL from a reader
+     */
+    @JvmStatic
+    fun readerISONL(reader: Reader): IsonReader = IsonReader(Scanner(reader), isonl = true)
 
     /**
      * converts an ISON string directly to JSON
@@ -94,53 +300,44 @@ object ISON {
      * parses ISONL (line-based streaming format)
      */
     @JvmStatic
-    fun parseISONL(text: String): Document {
-        val doc = Document()
-        val lines = splitLines(text)
-        for (l in lines) {
-            val line = l.trim()
-            if (line.isBlank() || line.startsWith("#")) {
-                continue
-            }
-            val parts = line.splitN("|", 3)
-            if (parts.size != 3) {
-                continue
-            }
-            // Parse block header
-            val header = parts[0]
-            val headerParts = header.splitN(".", 2)
-            if (headerParts.size != 2) {
-                continue
-            }
-            val kind = headerParts[0]
-            val name = headerParts[1]
-            // Get or create block
-            var block = doc.get(name)
-            if (block == null) {
-                block = Block(kind, name)
-                doc.addBlock(block)
-                // Parse fields
-                val fieldTokens = tokenizeLine(parts[1])
-                fieldTokens.forEach { field ->
-                    val (fname, ftype) = parseFieldDef(field)
-                    block.addField(fname, ftype)
-                }
-            }
-            // Parse row
-            val tokens = tokenizeLine(parts[2])
-            val row: Row = mutableMapOf()
-            tokens.forEachIndexed { i, token ->
-                if (i < block.fields.size) {
-                    val fieldInfo = block.fields[i]
-                    val v = parseValue(token, fieldInfo.typeHint)
-                    row[fieldInfo.name] = v
-                }
-            }
-            block.addRow(row)
-        }
-        return doc
+    fun parseISONL(text: String): Document = parseISONL(text as CharSequence)
+
+    /**
+     * parses ISONL from any CharSequence without copying it
+     */
+    @JvmStatic
+    fun parseISONL(text: CharSequence): Document = parseISONL(Scanner(text))
+
+    /**
+     * parses ISONL from a reader through a bounded buffer, the full text is never held in memory
+     */
+    @JvmStatic
+    fun parseISONL(reader: Reader): Document = parseISONL(Scanner(reader))
+
+    /**
+     * parses ISONL into handler callbacks without building a Document
+     */
+    @JvmStatic
+    fun parseISONL(text: CharSequence, handler: IsonHandler) {
+        Parser(IsonReader(Scanner(text), isonl = true)).parse(handler)
     }
 
+    /**
+     * parses ISONL from a reader into handler callbacks without building a Document
+     */
+    @JvmStatic
+    fun parseISONL(reader: Reader, handler: IsonHandler) {
+        Parser(IsonReader(Scanner(reader), isonl = true)).parse(handler)
+    }
+
+    /**
+     * parses ISONL with options
+     */
+    @JvmStatic
+    fun parseISONLWithOptions(text: CharSequence, opts: ParseOptions): Document = Parser(IsonReader(Scanner(text), isonl = true), opts).parse()
+
+    private fun parseISONL(scanner: Scanner): Document = Parser(IsonReader(scanner, isonl = true)).parse()
+
     /**
      * loads and parses an ISONL file
      */
@@ -151,7 +348,21 @@ object ISON {
      * loads and parses an ISONL file
      */
     @JvmStatic
-    fun loadISONL(file: File): Document = parseISONL(file.readText())
+    fun loadISONL(file: File): Document = loadISONL(file.toPath())
+
+    /**
+     * loads and parses an ISONL file without reading it into memory first
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun loadISONL(path: Path, charset: Charset = Charsets.UTF_8): Document = path.reader(charset).use { parseISONL(it) }
+
+    /**
+     * loads and parses ISONL from a stream without reading it into memory first
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun loadISONL(input: InputStream, charset: Charset = Charsets.UTF_8): Document = parseISONL(input.reader(charset))
 
     /**
      * serializes a Document and writes it to an ISONL file
@@ -262,7 +473,7 @@ object ISON {
                                             if (!refType.isNullOrBlank()) {
                                                 when (v) {
                                                     is Int, is Long, is Double, is String -> {
-                                                        row["$k"] = Value.REF(Reference(id = "$v", namespace = refType))
+                                                        row["$k"] = Value.ownRef(Reference(id = "$v", namespace = refType))
                                                         continue
                                                     }
                                                     else -> {}
@@ -355,11 +566,4 @@ object ISON {
         else -> t
     }
 
-
-
-    private fun splitLines(text: String): List<String> {
-        val lines = text.split("\n")
-        return lines.map { it.trimEnd('\r') }
-    }
-
 }
@@ -0,0 +1,63 @@
+package com.rarnu.ison
+
+/**
+ * parses ISON or ISONL arriving in chunks (e.g., streamed from an LLM) as soon as lines complete
+ */
+class IncrementalParser @JvmOverloads constructor(
+    private val handler: IsonHandler,
+    /**
+     * Parse ISONL (header|fields|values per line) instead of ISON
+     */
+    val isonl: Boolean = false,
+    options: ParseOptions = ParseOptions()
+) {
+
+    /**
+     * builds a Document while parsing, see document
+     */
+    @JvmOverloads
+    constructor(isonl: Boolean = false, options: ParseOptions = ParseOptions()) : this(
+        DocumentBuilder(merge = isonl, columns = options.columns, dedupLimit = options.dedupLimit), isonl, options
+    )
+
+    private val scanner = Scanner.fed()
+    private val parser = Parser(IsonReader(scanner, isonl), options)
+    private val view = RowView(scanner)
+
+    /**
+     * True once finish has been called
+     */
+    var finished: Boolean = false
+        private set
+
+    /**
+     * The document built from the input fed so far, null if a handler was given
+     */
+    val document: Document? get() = (handler as? DocumentBuilder)?.doc
+
+    /**
+     * appends a chunk of input and parses every line it completes
+     */
+    fun feed(chunk: CharSequence): IncrementalParser {
+        check(!finished) { "feed after finish" }
+        scanner.feed(chunk)
+        // Without a line break no new line is complete
+        if (chunk.indexOf('\n') >= 0) {
+            parser.resume(handler, view)
+        }
+        return this
+    }
+
+    /**
+     * parses the rest of the input, returns the built document if any
+     */
+    fun finish(): Document? {
+        if (!finished) {
+            finished = true
+            scanner.finish()
+            parser.resume(handler, view)
+        }
+        return document
+    }
+
+}
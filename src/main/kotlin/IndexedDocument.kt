@@ -0,0 +1,54 @@
+package com.rarnu.ison
+
+import java.io.Closeable
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * an ISON file opened through its block index, get parses and caches only the requested block
+ */
+class IndexedDocument @JvmOverloads constructor(
+    val path: Path,
+    val index: IsonIndex,
+    private val options: ParseOptions = ParseOptions()
+) : Closeable {
+
+    private val channel = FileChannel.open(path, StandardOpenOption.READ)
+    private val parsed = mutableMapOf<String, Block>()
+
+    /**
+     * returns the block names in order of appearance
+     */
+    fun names(): List<String> = index.names()
+
+    /**
+     * returns a block by name, parsing it on first access
+     */
+    @Synchronized
+    fun get(name: String): Block? {
+        parsed[name]?.let { return it }
+        val loc = index.get(name) ?: return null
+        require(loc.length <= Int.MAX_VALUE) { "block $name is larger than 2 GB" }
+        val buf = channel.map(FileChannel.MapMode.READ_ONLY, loc.offset, loc.length)
+        val block = Parser(IsonReader(Scanner(MappedText(buf))), options).parse().get(name) ?: Block(loc.kind, name)
+        parsed[name] = block
+        return block
+    }
+
+    /**
+     * parses all blocks into a Document
+     */
+    fun toDocument(): Document {
+        val doc = Document()
+        for (name in names()) {
+            doc.addBlock(get(name)!!)
+        }
+        return doc
+    }
+
+    override fun close() {
+        channel.close()
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.rarnu.ison
+
+/**
+ * represents the events returned by IsonReader
+ */
+enum class IsonEvent {
+    /**
+     * A block header, kind and name are available
+     */
+    EventBlockStart,
+    /**
+     * The field definitions of the current block
+     */
+    EventFields,
+    /**
+     * A data or summary row begins
+     */
+    EventRowStart,
+    /**
+     * A cell of the current row, the token and its field are available
+     */
+    EventValue,
+    /**
+     * The current row ends
+     */
+    EventRowEnd,
+    /**
+     * The summary separator (---), following rows are summary rows
+     */
+    EventSummaryStart,
+    /**
+     * The current block ends
+     */
+    EventBlockEnd,
+    /**
+     * No more input
+     */
+    EventEndDocument,
+    /**
+     * The input fed so far ends before a complete line, only returned for an IncrementalParser
+     */
+    EventNeedInput
+}
@@ -0,0 +1,23 @@
+package com.rarnu.ison
+
+/**
+ * receives parse callbacks instead of a built Document, see ISON.parse(text, handler)
+ */
+interface IsonHandler {
+
+    /**
+     * called after a block header and its fields, in ISONL again whenever a block resumes after another
+     */
+    fun onBlock(kind: String, name: String, fields: List<FieldInfo>)
+
+    /**
+     * called for each data row, the view is reused for the next row and must not be kept
+     */
+    fun onRow(block: String, row: RowView)
+
+    /**
+     * called for the row after ---, the view is reused and must not be kept
+     */
+    fun onSummary(block: String, row: RowView)
+
+}
@@ -0,0 +1,173 @@
+package com.rarnu.ison
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * the location of a block in an ISON file, offsets and lengths are in bytes
+ */
+data class BlockLocation(
+    var kind: String,
+    var name: String,
+    /**
+     * Offset of the header line
+     */
+    var offset: Long,
+    /**
+     * Length up to the line that ends the block
+     */
+    var length: Long,
+    /**
+     * The field definition line as written
+     */
+    var fields: String,
+    /**
+     * Number of data rows, the summary row is not counted
+     */
+    var rows: Long
+)
+
+/**
+ * the block locations of an ISON file, saved as a sidecar that is checked against the file's size and mtime
+ */
+class IsonIndex(
+    val blocks: List<BlockLocation>,
+    /**
+     * Size of the indexed file in bytes
+     */
+    val size: Long,
+    /**
+     * Modification time of the indexed file in milliseconds
+     */
+    val modified: Long
+) {
+
+    /**
+     * returns the location of a block by name, the last block of a name wins
+     */
+    fun get(name: String): BlockLocation? = blocks.lastOrNull { it.name == name }
+
+    /**
+     * returns the block names in order of appearance
+     */
+    fun names(): List<String> = blocks.map { it.name }.distinct()
+
+    /**
+     * returns true if the file still has the size and modification time it was indexed with
+     */
+    fun isCurrent(path: Path): Boolean = Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == modified
+
+    /**
+     * writes the index to a sidecar file
+     */
+    fun save(path: Path) {
+        val source = Block("object", SOURCE)
+        source.addField("size", "int")
+        source.addField("modified", "int")
+        source.addRow(mutableMapOf("size" to Value.INT(size), "modified" to Value.INT(modified)))
+        val index = Block("table", BLOCKS)
+        index.addField("kind", "string")
+        index.addField("name", "string")
+        index.addField("offset", "int")
+        index.addField("length", "int")
+        index.addField("rows", "int")
+        index.addField("fields", "string")
+        for (b in blocks) {
+            index.addRow(mutableMapOf(
+                "kind" to Value.STRING(b.kind),
+                "name" to Value.STRING(b.name),
+                "offset" to Value.INT(b.offset),
+                "length" to Value.INT(b.length),
+                "rows" to Value.INT(b.rows),
+                "fields" to Value.STRING(b.fields)
+            ))
+        }
+        val doc = Document()
+        doc.addBlock(source)
+        doc.addBlock(index)
+        Files.writeString(path, Dump.dumps(doc))
+    }
+
+    companion object {
+        private const val SOURCE = "source"
+        private const val BLOCKS = "blocks"
+
+        /**
+         * reads an index written by save
+         */
+        @JvmStatic
+        fun load(path: Path): IsonIndex {
+            // Tokens are read as written, so names such as "true" or "~" stay strings
+            val reader = ISON.reader(Files.readString(path))
+            val blocks = mutableListOf<BlockLocation>()
+            var size = -1L
+            var modified = -1L
+            val row = arrayOfNulls<String>(6)
+            while (reader.hasNext()) {
+                when (reader.next()) {
+                    IsonEvent.EventRowStart -> row.fill(null)
+                    IsonEvent.EventValue -> if (reader.fieldIndex < row.size) {
+                        row[reader.fieldIndex] = reader.token
+                    }
+
+                    IsonEvent.EventRowEnd -> if (reader.name == SOURCE) {
+                        size = row[0]!!.toLong()
+                        modified = row[1]!!.toLong()
+                    } else if (reader.name == BLOCKS) {
+                        blocks.add(BlockLocation(row[0]!!, row[1]!!, row[2]!!.toLong(), row[3]!!.toLong(), row[5] ?: "", row[4]!!.toLong()))
+                    }
+
+                    else -> {}
+                }
+            }
+            require(size >= 0) { "not an ISON index: $path" }
+            return IsonIndex(blocks, size, modified)
+        }
+
+        /**
+         * finds the blocks of a mapped segment starting at byte offset base, split as IsonReader splits them
+         */
+        internal fun scan(text: MappedText, base: Long, into: MutableList<BlockLocation>) {
+            val scanner = Scanner(text)
+            var current: BlockLocation? = null
+            var expectFields = false
+            var inSummary = false
+            var at = scanner.pos
+            while (scanner.nextLine()) {
+                val lineAt = at
+                at = scanner.pos
+                if (scanner.isComment()) {
+                    continue
+                }
+                if (current != null && expectFields) {
+                    if (!scanner.isBlank()) {
+                        current.fields = scanner.line()
+                        expectFields = false
+                    }
+                    continue
+                }
+                val kind = if (scanner.isBlank()) null else scanner.headerKind()
+                if (current != null && (scanner.isBlank() || kind != null)) {
+                    current.length = base + lineAt - current.offset
+                    current = null
+                }
+                if (kind != null) {
+                    current = BlockLocation(kind, scanner.headerName(kind), base + lineAt, 0, "", 0)
+                    into.add(current)
+                    expectFields = true
+                    inSummary = false
+                } else if (current != null) {
+                    if (scanner.isSeparator()) {
+                        inSummary = true
+                    } else if (!inSummary) {
+                        current.rows++
+                    }
+                }
+            }
+            if (current != null) {
+                current.length = base + text.length - current.offset
+            }
+        }
+    }
+
+}
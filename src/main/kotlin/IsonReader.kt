@@ -0,0 +1,432 @@
+package com.rarnu.ison
+
+import com.rarnu.ison.Parser.Companion.parseBoolToken
+import com.rarnu.ison.Parser.Companion.parseFieldDef
+import java.io.Reader
+
+/**
+ * pulls ISON or ISONL content as events without building Blocks, Rows or Values
+ */
+class IsonReader @JvmOverloads constructor(
+    internal val scanner: Scanner,
+    /**
+     * Read ISONL (header|fields|values per line) instead of ISON
+     */
+    val isonl: Boolean = false
+) {
+
+    constructor(text: CharSequence) : this(Scanner(text))
+
+    constructor(reader: Reader) : this(Scanner(reader))
+
+    private enum class State { Between, Header, NoFields, Body, Row, End }
+
+    private var state = State.Between
+
+    /**
+     * ISONL kind and fields per block name from its first line, seeded when a reader starts mid-input
+     */
+    internal var isonlBlocks: MutableMap<String, Pair<String, List<FieldInfo>>> = mutableMapOf()
+
+    /**
+     * The last event returned by next
+     */
+    var event: IsonEvent? = null
+        private set
+
+    /**
+     * Kind of the current block
+     */
+    var kind: String = ""
+        private set
+
+    /**
+     * Name of the current block
+     */
+    var name: String = ""
+        private set
+
+    /**
+     * Field definitions of the current block
+     */
+    var fields: List<FieldInfo> = emptyList()
+        private set
+
+    /**
+     * True once the summary separator of the current block has been read
+     */
+    var inSummary: Boolean = false
+        private set
+
+    /**
+     * Index of the field the current token belongs to
+     */
+    var fieldIndex: Int = -1
+        private set
+
+    private var tokenText: String? = null
+
+    /**
+     * The current token with quotes removed and escapes resolved, decoded on first access
+     */
+    val token: String
+        get() = tokenText ?: scanner.token(scanner.tokenStart, scanner.tokenEnd).also { tokenText = it }
+
+    /**
+     * returns true until EventEndDocument has been returned
+     */
+    fun hasNext(): Boolean = state != State.End
+
+    /**
+     * advances to the next event
+     */
+    fun next(): IsonEvent {
+        val e = if (skipping && !skip()) IsonEvent.EventNeedInput else if (isonl) nextISONL() else nextISON()
+        event = e
+        return e
+    }
+
+    private fun nextISON(): IsonEvent {
+        when (state) {
+            State.Between -> {
+                while (scanner.nextLine()) {
+                    if (scanner.isBlank() || scanner.isComment()) {
+                        continue
+                    }
+                    val k = scanner.headerKind() ?: continue
+                    return startBlock(k, scanner.headerName(k))
+                }
+                if (scanner.open) {
+                    return IsonEvent.EventNeedInput
+                }
+                state = State.End
+                return IsonEvent.EventEndDocument
+            }
+
+            State.Header -> {
+                // Field definitions are on the next non-empty, non-comment line
+                while (scanner.nextLine()) {
+                    if (scanner.isBlank() || scanner.isComment()) {
+                        continue
+                    }
+                    fields = readFields()
+                    state = State.Body
+                    return IsonEvent.EventFields
+                }
+                if (scanner.open) {
+                    return IsonEvent.EventNeedInput
+                }
+                state = State.NoFields
+                return IsonEvent.EventFields
+            }
+
+            State.NoFields -> {
+                // Header without field definitions at the end of the input
+                state = State.Between
+                return IsonEvent.EventBlockEnd
+            }
+
+            State.Body -> {
+                while (scanner.nextLine()) {
+                    // Empty line ends block
+                    if (scanner.isBlank()) {
+                        state = State.Between
+                        return IsonEvent.EventBlockEnd
+                    }
+                    if (scanner.isComment()) {
+                        continue
+                    }
+                    // New block starts
+                    if (scanner.headerKind() != null) {
+                        scanner.unread()
+                        state = State.Between
+                        return IsonEvent.EventBlockEnd
+                    }
+                    if (scanner.isSeparator()) {
+                        inSummary = true
+                        return IsonEvent.EventSummaryStart
+                    }
+                    return startRow()
+                }
+                // Only running out of complete lines waits for input, the block may continue
+                if (scanner.open) {
+                    return IsonEvent.EventNeedInput
+                }
+                state = State.Between
+                return IsonEvent.EventBlockEnd
+            }
+
+            State.Row -> return nextValue()
+            State.End -> return IsonEvent.EventEndDocument
+        }
+    }
+
+    private fun nextISONL(): IsonEvent {
+        when (state) {
+            State.Header -> {
+                state = State.Body
+                return IsonEvent.EventFields
+            }
+
+            State.Row -> return nextValue()
+            State.End -> return IsonEvent.EventEndDocument
+            else -> {}
+        }
+        val inBlock = state == State.Body
+        while (nextISONLLine()) {
+            // Consecutive lines of the same block only produce rows
+            if (inBlock && scanner.regionEquals(dot + 1, fieldsStart - 1, name)) {
+                scanner.tokens(fieldsEnd + 1, scanner.lineEnd)
+                return startRow()
+            }
+            if (inBlock) {
+                scanner.unread()
+                state = State.Between
+                return IsonEvent.EventBlockEnd
+            }
+            // Kind and fields come from the first line of a block, later lines only add rows
+            val n = scanner.substring(dot + 1, fieldsStart - 1)
+            val known = isonlBlocks[n]
+            if (known != null) {
+                kind = known.first
+                fields = known.second
+            } else {
+                kind = scanner.substring(scanner.lineStart, dot)
+                scanner.tokens(fieldsStart, fieldsEnd)
+                fields = readFields()
+                isonlBlocks[n] = kind to fields
+            }
+            name = n
+            inSummary = false
+            scanner.unread()
+            state = State.Header
+            return IsonEvent.EventBlockStart
+        }
+        if (scanner.open) {
+            return IsonEvent.EventNeedInput
+        }
+        if (inBlock) {
+            state = State.Between
+            return IsonEvent.EventBlockEnd
+        }
+        state = State.End
+        return IsonEvent.EventEndDocument
+    }
+
+    private var fieldsStart = 0
+    private var fieldsEnd = 0
+    private var dot = 0
+
+    /**
+     * advances to the next well-formed ISONL line and splits it into header|fields|values
+     */
+    private fun nextISONLLine(): Boolean {
+        while (scanner.nextLine()) {
+            if (scanner.isBlank() || scanner.isComment()) {
+                continue
+            }
+            fieldsStart = scanner.indexOf('|', scanner.lineStart, scanner.lineEnd) + 1
+            if (fieldsStart == 0) {
+                continue
+            }
+            fieldsEnd = scanner.indexOf('|', fieldsStart, scanner.lineEnd)
+            if (fieldsEnd < 0) {
+                continue
+            }
+            dot = scanner.indexOf('.', scanner.lineStart, fieldsStart - 1)
+            if (dot < 0) {
+                continue
+            }
+            return true
+        }
+        return false
+    }
+
+    /**
+     * skips the rest of the current block without tokenizing it
+     */
+    fun skipBlock() {
+        skipping = true
+        skip()
+    }
+
+    /**
+     * True while skipBlock waits for fed input
+     */
+    private var skipping = false
+
+    /**
+     * goes on with skipBlock, returns false if fed input ran out before the end of the block
+     */
+    private fun skip(): Boolean {
+        if (isonl) {
+            while (nextISONLLine()) {
+                if (!scanner.regionEquals(dot + 1, fieldsStart - 1, name)) {
+                    scanner.unread()
+                    return skipped()
+                }
+            }
+            return !scanner.open && skipped()
+        }
+        if (state == State.Header) {
+            // Skip the field definitions
+            while (scanner.nextLine()) {
+                if (!scanner.isBlank() && !scanner.isComment()) {
+                    state = State.Body
+                    break
+                }
+            }
+            if (state == State.Header && scanner.open) {
+                return false
+            }
+        }
+        if (state == State.Body || state == State.Row) {
+            state = State.Body
+            while (scanner.nextLine()) {
+                if (scanner.isBlank()) {
+                    return skipped()
+                }
+                if (scanner.headerKind() != null) {
+                    scanner.unread()
+                    return skipped()
+                }
+            }
+            if (scanner.open) {
+                return false
+            }
+        }
+        return skipped()
+    }
+
+    private fun skipped(): Boolean {
+        skipping = false
+        state = State.Between
+        return true
+    }
+
+    /**
+     * skips the remaining cells of the current row, the next event is EventRowEnd
+     */
+    fun skipRow() {
+        scanner.skipTokens()
+    }
+
+    /**
+     * starts reading rows of a block whose header and fields were read elsewhere
+     */
+    internal fun startBody(k: String, n: String, fs: List<FieldInfo>) {
+        kind = k
+        name = n
+        fields = fs
+        inSummary = false
+        state = State.Body
+    }
+
+    /**
+     * starts a block at the next non-empty, non-comment line, taken as its header without checking it
+     */
+    internal fun startAt(k: String, n: String) {
+        while (scanner.nextLine()) {
+            if (!scanner.isBlank() && !scanner.isComment()) {
+                break
+            }
+        }
+        event = startBlock(k, n)
+    }
+
+    private fun startBlock(k: String, n: String): IsonEvent {
+        kind = k
+        name = n
+        fields = emptyList()
+        inSummary = false
+        state = State.Header
+        return IsonEvent.EventBlockStart
+    }
+
+    private fun readFields(): List<FieldInfo> {
+        val fs = mutableListOf<FieldInfo>()
+        while (true) {
+            val field = scanner.nextToken() ?: break
+            val (fname, typeHint) = parseFieldDef(field)
+            fs.add(FieldInfo(name = fname, typeHint = typeHint))
+        }
+        return fs
+    }
+
+    private fun startRow(): IsonEvent {
+        fieldIndex = -1
+        state = State.Row
+        return IsonEvent.EventRowStart
+    }
+
+    private fun nextValue(): IsonEvent {
+        // Tokens beyond the declared fields are ignored
+        if (fieldIndex + 1 < fields.size && scanner.skipToken()) {
+            fieldIndex++
+            tokenText = null
+            return IsonEvent.EventValue
+        }
+        state = State.Body
+        return IsonEvent.EventRowEnd
+    }
+
+    /**
+     * Field definition of the current token
+     */
+    val field: FieldInfo get() = fields[fieldIndex]
+
+    /**
+     * Raw span of the current token in the scanned text, including quotes
+     */
+    val tokenStart: Int get() = scanner.tokenStart
+    val tokenEnd: Int get() = scanner.tokenEnd
+
+    /**
+     * returns true if the current token is a null (~, null, NULL)
+     */
+    fun isNull(): Boolean = token == "~" || token == "null" || token == "NULL"
+
+    /**
+     * returns the current token as a boolean (true/TRUE/1 or false/FALSE/0)
+     */
+    fun booleanValue(): Boolean = parseBoolToken(token)
+
+    /**
+     * returns the current token as an integer
+     */
+    fun longValue(): Long = token.toLong()
+
+    /**
+     * returns the current token as a float
+     */
+    fun doubleValue(): Double = token.toDouble()
+
+    /**
+     * returns the current token as a string
+     */
+    fun stringValue(): String = token
+
+    /**
+     * returns the current token as a reference
+     */
+    fun refValue(): Reference = Parser.parseReference(token)
+
+    /**
+     * decodes the current token into a Value using the field's type hint
+     */
+    fun value(): Value {
+        if (hintsFor !== fields) {
+            hints = TypeHint.compile(fields)
+            hintsFor = fields
+        }
+        val t = tokenText ?: return hints[fieldIndex].decode(scanner.text, scanner.tokenStart, scanner.tokenEnd, scanner.buffer)
+        return hints[fieldIndex].decode(t)
+    }
+
+    /**
+     * Type hints compiled for the fields list they were built from
+     */
+    private var hints: Array<TypeHint> = emptyArray()
+    private var hintsFor: List<FieldInfo>? = null
+
+}
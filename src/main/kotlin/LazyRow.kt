@@ -0,0 +1,78 @@
+package com.rarnu.ison
+
+/**
+ * a row that keeps the raw token spans of its cells and decodes each Value on first read
+ * Any modification turns it into a plain map
+ */
+class LazyRow internal constructor(
+    private val text: CharSequence,
+    /**
+     * Layout of the cells, field names are unique
+     */
+    private val layout: RowLayout,
+    private val hints: Array<TypeHint>,
+    /**
+     * Raw token spans as start/end pairs, one pair per present cell in field order
+     */
+    private val spans: IntArray
+) : AbstractMutableMap<String, Value>() {
+
+    private val count = spans.size / 2
+    private val decoded = arrayOfNulls<Value>(count)
+    private var materialized: MutableMap<String, Value>? = null
+
+    private fun indexOf(key: String): Int {
+        val i = layout.indexOf(key)
+        return if (i < count) i else -1
+    }
+
+    private fun decode(i: Int): Value {
+        var v = decoded[i]
+        if (v == null) {
+            v = hints[i].decode(text, spans[i * 2], spans[i * 2 + 1], null)
+            decoded[i] = v
+        }
+        return v
+    }
+
+    private fun materialize(): MutableMap<String, Value> {
+        var m = materialized
+        if (m == null) {
+            m = ArrayRow(layout, Array(layout.size) { if (it < count) decode(it) else null })
+            materialized = m
+        }
+        return m
+    }
+
+    /**
+     * adds the row to a retained memory estimate without decoding cells
+     */
+    internal fun estimate(m: MemoryEstimate): Long {
+        var n = MemoryEstimate.shell(8, 4) + MemoryEstimate.align(16L + spans.size * 4L) + MemoryEstimate.array(count) +
+                m.text(text) + m.layout(layout)
+        if (m.once(hints)) {
+            n += m.share(MemoryEstimate.array(hints.size))
+        }
+        for (v in decoded) n += m.value(v)
+        materialized?.let { n += m.row(it) }
+        return n
+    }
+
+    override val size: Int get() = materialized?.size ?: count
+
+    override fun isEmpty(): Boolean = size == 0
+
+    override fun containsKey(key: String): Boolean = materialized?.containsKey(key) ?: (indexOf(key) >= 0)
+
+    override fun get(key: String): Value? {
+        materialized?.let { return it[key] }
+        val i = indexOf(key)
+        return if (i < 0) null else decode(i)
+    }
+
+    override fun put(key: String, value: Value): Value? = materialize().put(key, value)
+
+    override val entries: MutableSet<MutableMap.MutableEntry<String, Value>>
+        get() = materialize().entries
+
+}
@@ -0,0 +1,41 @@
+package com.rarnu.ison
+
+import java.nio.ByteBuffer
+
+/**
+ * a CharSequence over UTF-8 bytes (e.g., a memory-mapped file) with one char per byte
+ * ISON delimiters are ASCII, so text is decoded only when a span becomes a String
+ */
+class MappedText(private val bytes: ByteBuffer) : CharSequence {
+
+    override val length: Int get() = bytes.limit()
+
+    override fun get(index: Int): Char = (bytes.get(index).toInt() and 0xFF).toChar()
+
+    override fun subSequence(startIndex: Int, endIndex: Int): CharSequence = MappedText(bytes.slice(startIndex, endIndex - startIndex))
+
+    /**
+     * decodes [from, to) as UTF-8, copying ASCII-only spans directly
+     */
+    fun decode(from: Int, to: Int): String {
+        val n = to - from
+        val arr = ByteArray(n)
+        bytes.get(from, arr)
+        for (b in arr) {
+            if (b < 0) {
+                return String(arr, Charsets.UTF_8)
+            }
+        }
+        return String(arr, Charsets.ISO_8859_1)
+    }
+
+    /**
+     * copies the bytes of [from, to) to the start of into
+     */
+    internal fun copy(from: Int, to: Int, into: ByteArray) {
+        bytes.get(from, into, 0, to - from)
+    }
+
+    override fun toString(): String = decode(0, length)
+
+}
@@ -0,0 +1,193 @@
+package com.rarnu.ison
+
+import java.util.IdentityHashMap
+
+/**
+ * estimates the heap retained by parsed documents on a 64-bit JVM with compressed references
+ * Objects shared between rows are counted once, canonical Values not at all
+ */
+internal class MemoryEstimate {
+
+    private val seen = IdentityHashMap<Any, Boolean>()
+
+    /**
+     * While sampling rows, the size of each Value first counted in a sampled row
+     */
+    private var sampled: IdentityHashMap<Value, Long>? = null
+
+    /**
+     * While sampling rows, the bytes of objects shared between rows, which are not scaled
+     */
+    private var shared = 0L
+
+    /**
+     * returns true the first time an object is seen
+     */
+    fun once(o: Any): Boolean = seen.put(o, true) == null
+
+    fun document(doc: Document, sampleRows: Int): Long {
+        var n = shell(2) + map(doc.blocks.size, true) + list(doc.order.size)
+        for (name in doc.order) n += string(name)
+        for (block in doc.blocks.values) n += block(block, sampleRows)
+        return n
+    }
+
+    /**
+     * blocks with more rows than sampleRows are estimated from an even sample of rows scaled to the block size
+     * Objects shared between rows are counted once outside the scaled sample
+     */
+    fun block(block: Block, sampleRows: Int): Long {
+        if (!once(block)) {
+            return 0
+        }
+        var n = shell(8, 4) + string(block.kind) + string(block.name) + list(block.fields.size)
+        for (f in block.fields) {
+            n += shell(2) + string(f.name) + string(f.typeHint)
+        }
+        val rows = block.rows
+        n += list(rows.size)
+        if (sampleRows <= 0 || rows.size <= sampleRows) {
+            for (row in rows) n += row(row)
+        } else {
+            sampled = IdentityHashMap()
+            shared = 0
+            var sample = 0L
+            for (k in 0 until sampleRows) {
+                sample += row(rows[(k.toLong() * rows.size / sampleRows).toInt()])
+            }
+            sampled = null
+            n += sample * rows.size / sampleRows + shared
+        }
+        block.summaryRow?.let { n += row(it) }
+        return n
+    }
+
+    fun row(row: Row): Long = when (row) {
+        is ArrayRow -> row.estimate(this)
+        is LazyRow -> row.estimate(this)
+        else -> {
+            var n = map(row.size, row is LinkedHashMap<*, *>)
+            for ((k, v) in row) {
+                n += string(k) + value(v)
+            }
+            n
+        }
+    }
+
+    fun layout(layout: RowLayout): Long {
+        if (!once(layout)) {
+            return 0
+        }
+        // Positions below 128 are cached Integers
+        var n = shell(2) + array(layout.size) + map(layout.size, false) + maxOf(0, layout.size - 128) * shell(0, 4)
+        for (name in layout.names) n += string(name)
+        return share(n)
+    }
+
+    /**
+     * returns the size of an object shared between rows, or 0 while sampling, which counts it once unscaled
+     */
+    fun share(n: Long): Long {
+        if (sampled == null) {
+            return n
+        }
+        shared += n
+        return 0
+    }
+
+    fun value(v: Value?): Long {
+        if (v == null || isCanonical(v)) {
+            return 0
+        }
+        val s = sampled
+        if (s != null) {
+            val size = s[v]
+            if (size != null) {
+                // Met again in the sample, so shared, its first count moves out of the scaled rows
+                s[v] = 0
+                shared += size
+                return -size
+            }
+        }
+        if (!once(v)) {
+            return 0
+        }
+        val n = shell(2, 8) + when (v.type) {
+            ValueType.TypeString -> string(v.stringVal)
+            ValueType.TypeReference -> reference(v.ref!!)
+            else -> 0
+        }
+        s?.put(v, n)
+        return n
+    }
+
+    fun string(s: String?): Long {
+        if (s == null || !once(s)) {
+            return 0
+        }
+        // Compact strings keep Latin-1 text in one byte per char
+        val wide = s.any { it.code > 0xFF }
+        return shell(1, 6) + align(ARRAY_HEADER + s.length.toLong() * (if (wide) 2 else 1))
+    }
+
+    /**
+     * counts text that a row keeps alive, mapped files live outside the heap
+     */
+    fun text(text: CharSequence): Long = share(
+        when {
+            text is String -> string(text)
+            !once(text) -> 0
+            text is MappedText -> shell(4)
+            else -> shell(1) + align(ARRAY_HEADER + text.length * 2L)
+        }
+    )
+
+    private fun reference(r: Reference): Long {
+        if (!once(r)) {
+            return 0
+        }
+        return shell(3) + string(r.id) + string(r.namespace) + string(r.relationship)
+    }
+
+    private fun isCanonical(v: Value): Boolean = when (v.type) {
+        ValueType.TypeNull -> v === Value.NULL()
+        ValueType.TypeBool -> v === Value.BOOL(v.boolVal)
+        ValueType.TypeInt -> v === Value.INT(v.intVal)
+        else -> false
+    }
+
+    companion object {
+        private const val HEADER = 12L
+        private const val REF = 4L
+        private const val ARRAY_HEADER = 16L
+
+        fun align(n: Long): Long = (n + 7) and 7L.inv()
+
+        /**
+         * an object with the given number of references and bytes of primitive fields
+         */
+        fun shell(refs: Int, bytes: Int = 0): Long = align(HEADER + refs * REF + bytes)
+
+        /**
+         * a reference array of the given length
+         */
+        fun array(length: Int): Long = align(ARRAY_HEADER + length * REF)
+
+        /**
+         * an ArrayList of the given size
+         */
+        fun list(size: Int): Long = shell(1, 8) + array(size)
+
+        /**
+         * a HashMap or LinkedHashMap of the given size with its table and entries, without keys and values
+         */
+        fun map(size: Int, linked: Boolean): Long {
+            var capacity = 16
+            while (capacity * 3 / 4 < size) capacity *= 2
+            val entry = if (linked) shell(5, 4) else shell(3, 4)
+            val self = if (linked) shell(6, 17) else shell(4, 16)
+            return self + array(capacity) + size.toLong() * entry
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.rarnu.ison
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+
+/**
+ * parses independent blocks of an in-memory ISON text concurrently on a ForkJoinPool
+ */
+internal object ParallelParser {
+
+    /**
+     * finds the header line offsets of all blocks in [start, end), paired with their names
+     */
+    fun blockStarts(text: CharSequence, start: Int, end: Int): List<Pair<Int, String>> {
+        val starts = mutableListOf<Pair<Int, String>>()
+        val scanner = Scanner(text, start, end)
+        var expectFields = false
+        var lineStart = scanner.pos
+        while (scanner.nextLine()) {
+            val at = lineStart
+            lineStart = scanner.pos
+            if (scanner.isBlank() || scanner.isComment()) {
+                continue
+            }
+            // The line after a header holds the field definitions even if it looks like a header
+            if (expectFields) {
+                expectFields = false
+                continue
+            }
+            val kind = scanner.headerKind() ?: continue
+            starts.add(at to scanner.headerName(kind))
+            expectFields = true
+        }
+        return starts
+    }
+
+    fun parse(text: CharSequence, start: Int, end: Int, options: ParseOptions): Document {
+        val starts = blockStarts(text, start, end)
+        val single = options.copy(parallel = false)
+        val pool = options.pool ?: ForkJoinPool.commonPool()
+        val tasks = starts.indices.mapNotNull { i ->
+            val (from, name) = starts[i]
+            if (options.blocks?.contains(name) == false) {
+                return@mapNotNull null
+            }
+            val to = if (i + 1 < starts.size) starts[i + 1].first else end
+            pool.submit(ForkJoinTask.adapt(Callable {
+                if (to - from > options.parallelRowThreshold) {
+                    parseLargeBlock(text, from, to, single, pool)
+                } else {
+                    Parser(IsonReader(Scanner(text, from, to)), single).parse()
+                }
+            }))
+        }
+        // Reassemble in the original order, a later block of the same name replaces an earlier one
+        val doc = Document()
+        for (task in tasks) {
+            val part = task.join()
+            for (name in part.order) {
+                doc.addBlock(part.blocks[name]!!)
+            }
+        }
+        return doc
+    }
+
+    /**
+     * parses the block in [from, to) with its data rows split into line-aligned chunks parsed concurrently
+     */
+    private fun parseLargeBlock(text: CharSequence, from: Int, to: Int, options: ParseOptions, pool: ForkJoinPool): Document {
+        val reader = IsonReader(Scanner(text, from, to))
+        reader.next()
+        if (reader.next() != IsonEvent.EventFields || options.blocks?.contains(reader.name) == false) {
+            return Parser(IsonReader(Scanner(text, from, to)), options).parse()
+        }
+        val kind = reader.kind
+        val name = reader.name
+        val fields = reader.fields
+        // A line scan finds where the rows end (first empty line) and the summary separator,
+        // so that chunks only ever hold data rows and comments
+        val scanner = reader.scanner
+        val bodyStart = scanner.pos
+        var bodyEnd = to
+        var separator = -1
+        var lineStart = scanner.pos
+        while (scanner.nextLine()) {
+            if (scanner.isBlank()) {
+                bodyEnd = lineStart
+                break
+            }
+            if (separator < 0 && scanner.isSeparator()) {
+                separator = lineStart
+            }
+            lineStart = scanner.pos
+        }
+        val dataEnd = if (separator >= 0) separator else bodyEnd
+
+        val builder = DocumentBuilder(merge = false, lazyValues = options.lazyValues, columns = options.columns, dedupLimit = options.dedupLimit)
+        builder.onBlock(kind, name, fields)
+        val tasks = chunks(text, bodyStart, dataEnd, options.rowChunkSize).map { (cs, ce) ->
+            pool.submit(ForkJoinTask.adapt(Callable {
+                val rows = mutableListOf<Row>()
+                // Dictionaries are not shared between threads
+                val dicts = builder.newDicts()
+                val chunkReader = IsonReader(Scanner(text, cs, ce))
+                chunkReader.startBody(kind, name, fields)
+                Parser(chunkReader, options).readRows(object : IsonHandler {
+                    override fun onBlock(kind: String, name: String, fields: List<FieldInfo>) {}
+                    override fun onRow(block: String, row: RowView) {
+                        rows.add(builder.rowOf(row, dicts))
+                    }
+
+                    override fun onSummary(block: String, row: RowView) {}
+                }, RowView(chunkReader.scanner))
+                rows
+            }))
+        }
+        val block = builder.block!!
+        for (task in tasks) {
+            block.rows.addAll(task.join())
+        }
+        // Summary rows are few, parse them in place
+        if (separator >= 0) {
+            val tailReader = IsonReader(Scanner(text, separator, bodyEnd))
+            tailReader.startBody(kind, name, fields)
+            Parser(tailReader, options).readRows(builder, RowView(tailReader.scanner))
+        }
+        return builder.doc
+    }
+
+    /**
+     * reads the kind and fields of every ISONL block in [start, end) from its first line without tokenizing rows
+     */
+    fun isonlBlocks(text: CharSequence, start: Int, end: Int): Map<String, Pair<String, List<FieldInfo>>> {
+        val reader = IsonReader(Scanner(text, start, end), isonl = true)
+        while (true) {
+            when (reader.next()) {
+                IsonEvent.EventBlockStart -> reader.skipBlock()
+                IsonEvent.EventEndDocument -> return reader.isonlBlocks
+                else -> {}
+            }
+        }
+    }
+
+    /**
+     * parses ISONL in [start, end) in line-aligned chunks concurrently, merged back in input order
+     */
+    fun parseISONL(text: CharSequence, start: Int, end: Int, options: ParseOptions): Document {
+        val single = options.copy(parallel = false)
+        if (end - start <= options.parallelRowThreshold) {
+            return Parser(IsonReader(Scanner(text, start, end), isonl = true), single).parse()
+        }
+        val pool = options.pool ?: ForkJoinPool.commonPool()
+        val blocks = isonlBlocks(text, start, end)
+        val tasks = chunks(text, start, end, options.rowChunkSize).map { (cs, ce) ->
+            pool.submit(ForkJoinTask.adapt(Callable {
+                val reader = IsonReader(Scanner(text, cs, ce), isonl = true)
+                reader.isonlBlocks = HashMap(blocks)
+                Parser(reader, single).parse()
+            }))
+        }
+        val doc = Document()
+        for (task in tasks) {
+            val part = task.join()
+            for (name in part.order) {
+                val block = part.blocks[name]!!
+                val existing = doc.get(name)
+                if (existing == null) {
+                    doc.addBlock(block)
+                } else {
+                    existing.rows.addAll(block.rows)
+                }
+            }
+        }
+        return doc
+    }
+
+    /**
+     * splits [start, end) into ranges of about size chars, each ending after a line break
+     */
+    private fun chunks(text: CharSequence, start: Int, end: Int, size: Int): List<Pair<Int, Int>> {
+        val ranges = mutableListOf<Pair<Int, Int>>()
+        val scanner = Scanner(text, start, end)
+        var from = start
+        while (from < end) {
+            var to = from + maxOf(size, 1)
+            if (to >= end) {
+                to = end
+            } else {
+                val nl = scanner.indexOf('\n', to - 1, end)
+                to = if (nl < 0) end else nl + 1
+            }
+            ranges.add(from to to)
+            from = to
+        }
+        return ranges
+    }
+
+}
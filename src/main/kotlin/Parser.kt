@@ -2,15 +2,79 @@
 
 package com.rarnu.ison
 
+import java.io.Reader
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * configures parse behavior
+ */
+data class ParseOptions @JvmOverloads constructor(
+    /**
+     * Keep token offsets per row and decode each Value on first access (in-memory text only)
+     */
+    var lazyValues: Boolean = false,
+    /**
+     * Names of the blocks to parse, null parses all
+     */
+    var blocks: Set<String>? = null,
+    /**
+     * Per block name, the columns to keep (unlisted blocks keep all)
+     */
+    var columns: Map<String, Set<String>> = emptyMap(),
+    /**
+     * Per block name, a filter on the raw tokens of each data row
+     */
+    var filters: Map<String, RowFilter> = emptyMap(),
+    /**
+     * Parse blocks and the rows of large blocks concurrently (in-memory text only)
+     */
+    var parallel: Boolean = false,
+    /**
+     * Pool for parallel parsing, null uses the common pool
+     */
+    var pool: ForkJoinPool? = null,
+    /**
+     * In parallel mode, blocks or ISONL input longer than this many chars are split into row chunks
+     */
+    var parallelRowThreshold: Int = 1 shl 20,
+    /**
+     * In parallel mode, the approximate number of chars per row chunk
+     */
+    var rowChunkSize: Int = 1 shl 18,
+    /**
+     * Per column, up to this many distinct tokens share one String and Value (0 for none, ignored with lazyValues)
+     */
+    var dedupLimit: Int = 0
+)
+
 /**
  * handles parsing ISON text into Document structures
  */
-class Parser(
-    var text: String,
-    var lines: List<String>,
-    var pos: Int
+class Parser @JvmOverloads constructor(
+    private val reader: IsonReader,
+    private val options: ParseOptions = ParseOptions()
 ) {
 
+    constructor(scanner: Scanner) : this(IsonReader(scanner))
+
+    constructor(text: CharSequence) : this(Scanner(text))
+
+    constructor(text: CharSequence, options: ParseOptions) : this(IsonReader(text), options)
+
+    constructor(reader: Reader, options: ParseOptions) : this(IsonReader(reader), options)
+
+    /**
+     * parses from a reader through a bounded buffer instead of holding the whole text
+     */
+    constructor(reader: Reader) : this(Scanner(reader))
+
+    /**
+     * parses lines from pos on
+     * The text, lines and pos properties of the former line-based parser were removed
+     */
+    @Deprecated("lines are no longer split up front", ReplaceWith("Parser(text)"))
+    constructor(text: String, lines: List<String>, pos: Int) : this(lines.drop(pos).joinToString("\n"))
+
     companion object {
         fun isValidKind(kind: String): Boolean = kind == "table" || kind == "object" || kind == "meta"
 
@@ -23,49 +87,12 @@ class Parser(
             }
         }
 
+        /**
+         * splits a line into tokens with quotes removed and escapes resolved, see Tokenizer for a non-allocating form
+         */
         fun tokenizeLine(line: String): List<String> {
-            val tokens = mutableListOf<String>()
-            val current = StringBuilder()
-            var inQuotes = false
-            var escaped = false
-
-            for (i in line.indices) {
-                val ch = line[i]
-                if (escaped) {
-                    when(ch) {
-                        'n' -> current.append('\n')
-                        't' -> current.append('\t')
-                        '"' -> current.append('"')
-                        '\\' -> current.append('\\')
-                        else -> current.append(ch)
-                    }
-                    escaped = false
-                    continue
-                }
-                if (ch == '\\' && inQuotes) {
-                    escaped = true
-                    continue
-                }
-
-                if (ch == '"') {
-                    inQuotes = !inQuotes
-                    continue
-                }
-                if (!inQuotes && (ch == ' ' || ch == '\t')) {
-                    if (current.isNotEmpty()) {
-                        tokens.add(current.toString())
-                        current.clear()
-                    }
-                    continue
-                }
-                current.append(ch)
-            }
-
-            if (current.isNotEmpty()) {
-                tokens.add(current.toString())
-            }
-
-            return tokens
+            val t = Tokenizer.local()
+            return t.tokenize(line).toList().also { t.clear() }
         }
 
         fun parseReference(token: String): Reference {
@@ -95,163 +122,159 @@ class Parser(
             return Reference(id = id, namespace = namespace)
         }
 
-        fun parseValue(token: String, typeHint: String): Value {
-            // Null
-            if (token == "~" || token == "null" || token == "NULL") {
-                return Value.NULL()
-            }
-            // Boolean
-            if (token == "true" || token == "TRUE") {
-                return Value.BOOL(true)
-            }
-            if (token == "false" || token == "FALSE") {
-                return Value.BOOL(false)
-            }
-            // Reference
-            if (token.startsWith(":")) {
-                val ref = parseReference(token)
-                return Value.REF(ref)
-            }
-            // Type hint handling
-            when(typeHint) {
-                "int" -> {
-                    val v = token.toLongOrNull()
-                    if (v != null) {
-                        return Value.INT(v)
-                    }
-                }
-                "float" -> {
-                    val v = token.toDoubleOrNull()
-                    if (v != null) {
-                        return Value.FLOAT(v)
-                    }
-                }
-                "bool" -> {
-                    if (token == "1") {
-                        return Value.BOOL(true)
-                    }
-                    if (token == "0") {
-                        return Value.BOOL(false)
-                    }
-                }
-                "string" -> return Value.STRING(token)
-                "ref" -> {
-                    if (token.startsWith(":")) {
-                        return Value.REF(parseReference(token))
-                    }
-                    return Value.STRING(token)
-                }
-            }
-            // Auto-inference
-            // Try integer
-            val vi = token.toLongOrNull()
-            if (vi != null) {
-                return Value.INT(vi)
-            }
-            // Try float
-            val vf = token.toDoubleOrNull()
-            if (vf != null) {
-                return Value.FLOAT(vf)
-            }
-            // Default to string
-            return Value.STRING(token)
+        fun parseBoolToken(token: String): Boolean = when (token) {
+            "true", "TRUE", "1" -> true
+            "false", "FALSE", "0" -> false
+            else -> error("not a boolean: $token")
         }
 
+        fun parseValue(token: String, typeHint: String): Value = TypeHint.of(typeHint).decode(token)
+
     }
 
     fun parse(): Document {
-        val doc = Document()
+        val scanner = reader.scanner
+        if (options.parallel && !scanner.streaming && reader.event == null) {
+            return if (reader.isonl) {
+                ParallelParser.parseISONL(scanner.text, scanner.pos, scanner.end, options)
+            } else {
+                ParallelParser.parse(scanner.text, scanner.pos, scanner.end, options)
+            }
+        }
+        val lazyValues = options.lazyValues && !scanner.streaming
+        val builder = DocumentBuilder(merge = reader.isonl, lazyValues = lazyValues, columns = options.columns, dedupLimit = options.dedupLimit)
+        parse(builder)
+        return builder.doc
+    }
+
+    /**
+     * parses the input into column-stored blocks by name, in order of appearance
+     */
+    fun parseColumnar(): Map<String, ColumnarBlock> {
+        val builder = ColumnarBuilder(merge = reader.isonl, columns = options.columns)
+        parse(builder)
+        return builder.blocks()
+    }
+
+    /**
+     * parses the input into handler callbacks without building a Document
+     */
+    fun parse(handler: IsonHandler) {
+        resume(handler, RowView(reader.scanner))
+    }
 
-        while (pos < lines.size) {
-            val line = lines[pos].trim()
-            // Skip empty lines and comments
-            if (line.isBlank() || line.startsWith("#")) {
-                pos++
+    /**
+     * parses the block the reader has just started, or on a new parser the block at the first line
+     */
+    fun parseBlock(kind: String, name: String): Block {
+        if (reader.event == null) {
+            reader.startAt(kind, name)
+        }
+        val builder = DocumentBuilder(merge = false)
+        parseBlock(builder, RowView(reader.scanner))
+        return builder.block ?: Block(kind, name)
+    }
+
+    private fun parseBlock(handler: IsonHandler, view: RowView) {
+        if (options.blocks?.contains(reader.name) == false) {
+            reader.skipBlock()
+            return
+        }
+        reader.next()
+        handler.onBlock(reader.kind, reader.name, reader.fields)
+        readRows(handler, view)
+    }
+
+    /**
+     * Row state of the block being read by resume
+     */
+    private var rows: Rows? = null
+
+    /**
+     * handles events until the end of the document or until fed input runs out, returns false at the end
+     */
+    internal fun resume(handler: IsonHandler, view: RowView): Boolean {
+        while (true) {
+            val event = reader.next()
+            val r = rows
+            if (r != null && onRowEvent(event, r, handler, view)) {
                 continue
             }
-            // Check for block header
-            if (line.contains(".") && !line.startsWith("\"")) {
-                val parts = line.splitN(".", 2)
-                if (parts.size == 2 && isValidKind(parts[0])) {
-                    val block = parseBlock(parts[0], parts[1])
-                    doc.addBlock(block)
-                    continue
+            when (event) {
+                IsonEvent.EventBlockStart -> if (options.blocks?.contains(reader.name) == false) {
+                    reader.skipBlock()
+                }
+
+                IsonEvent.EventFields -> {
+                    handler.onBlock(reader.kind, reader.name, reader.fields)
+                    rows = rowsOf()
                 }
+
+                IsonEvent.EventBlockEnd -> rows = null
+                IsonEvent.EventNeedInput -> return true
+                IsonEvent.EventEndDocument -> return false
+                else -> {}
             }
-            pos++
         }
-        return doc
     }
 
-    fun parseBlock(kine: String, name: String): Block {
-        val block = Block(kine, name)
-        pos++
-        // Parse field definitions (next non-empty, non-comment line)
-        while (pos < lines.size) {
-            val line = lines[pos].trim()
-            if (line.isBlank() || line.startsWith("#")) {
-                pos++
-                continue
+    /**
+     * reads the rows of the current block into handler callbacks
+     */
+    internal fun readRows(handler: IsonHandler, view: RowView) {
+        val r = rowsOf()
+        while (true) {
+            val event = reader.next()
+            if (!onRowEvent(event, r, handler, view) && (event == IsonEvent.EventBlockEnd || event == IsonEvent.EventEndDocument)) {
+                return
             }
-            break
         }
-        if (pos >= lines.size) {
-            return block
-        }
-        // Parse fields
-        val fieldsLine = lines[pos].trim()
-        val fs = tokenizeLine(fieldsLine)
-        fs.forEach { field ->
-            val (name, typeHint) = parseFieldDef(field)
-            block.addField(name, typeHint)
+    }
+
+    private class Rows(val name: String, val fields: List<FieldInfo>, val filter: RowFilter?, val limit: Int)
+
+    private fun rowsOf(): Rows {
+        val name = reader.name
+        val fields = reader.fields
+        val filter = options.filters[name]
+        // Cells after the last selected or filtered column are not even tokenized
+        var wanted = options.columns[name]
+        if (wanted != null && filter != null) {
+            val filtered = RowFilter.columnsOf(filter)
+            wanted = if (filtered == null) null else wanted + filtered
         }
-        pos++
-
-        // Parse rows
-        var inSummary = false
-        while (pos < lines.size) {
-            val line = lines[pos].trim()
-            // Empty line ends block
-            if (line.isBlank()) {
-                pos++
-                break
-            }
-            // Comment
-            if (line.startsWith("#")) {
-                pos++
-                continue
-            }
-            // New block starts
-            if (line.contains(".") && !line.startsWith("\"")) {
-                val parts = line.splitN(".", 2)
-                if (parts.size == 2 && isValidKind(parts[0])) {
-                    break
+        val limit = if (wanted == null) fields.size else fields.indexOfLast { it.name in wanted } + 1
+        return Rows(name, fields, filter, limit)
+    }
+
+    /**
+     * handles a row event of the current block, returns false for any other event
+     */
+    private fun onRowEvent(event: IsonEvent, rows: Rows, handler: IsonHandler, view: RowView): Boolean {
+        when (event) {
+            IsonEvent.EventRowStart -> {
+                view.reset(rows.fields)
+                if (rows.limit == 0) {
+                    reader.skipRow()
                 }
             }
-            // Summary separator
-            if (line == "---") {
-                inSummary = true
-                pos++
-                continue
-            }
-            // Parse row
-            val tokens = tokenizeLine(line)
-            val row: Row = mutableMapOf()
-            tokens.forEachIndexed { i, token ->
-                if (i < block.fields.size) {
-                    val fieldInfo = block.fields[i]
-                    val v = parseValue(token, fieldInfo.typeHint)
-                    row[fieldInfo.name] = v
+
+            IsonEvent.EventValue -> {
+                view.add(reader.tokenStart, reader.tokenEnd)
+                if (view.size == rows.limit) {
+                    reader.skipRow()
                 }
             }
-            if (inSummary) {
-                block.summaryRow = row
-            } else {
-                block.addRow(row)
+
+            IsonEvent.EventRowEnd -> if (reader.inSummary) {
+                handler.onSummary(rows.name, view)
+            } else if (rows.filter == null || rows.filter.test(view)) {
+                handler.onRow(rows.name, view)
             }
-            pos++
+
+            else -> return false
         }
-        return block
+        return true
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+package com.rarnu.ison
+
+/**
+ * decides whether a parsed row is kept, checked on the raw tokens before the row is decoded
+ */
+fun interface RowFilter {
+
+    fun test(row: RowView): Boolean
+
+    companion object {
+        /**
+         * matches rows whose column equals value (null matches ~, null, NULL and missing cells)
+         */
+        @JvmStatic
+        fun eq(column: String, value: Any?): RowFilter = ColumnFilter(column, ColumnFilter.Op.EQ, value)
+
+        @JvmStatic
+        fun ne(column: String, value: Any?): RowFilter = ColumnFilter(column, ColumnFilter.Op.NE, value)
+
+        @JvmStatic
+        fun gt(column: String, value: Any): RowFilter = ColumnFilter(column, ColumnFilter.Op.GT, value)
+
+        @JvmStatic
+        fun ge(column: String, value: Any): RowFilter = ColumnFilter(column, ColumnFilter.Op.GE, value)
+
+        @JvmStatic
+        fun lt(column: String, value: Any): RowFilter = ColumnFilter(column, ColumnFilter.Op.LT, value)
+
+        @JvmStatic
+        fun le(column: String, value: Any): RowFilter = ColumnFilter(column, ColumnFilter.Op.LE, value)
+
+        /**
+         * matches rows matched by all filters
+         */
+        @JvmStatic
+        fun and(vararg filters: RowFilter): RowFilter = CompositeFilter(filters.toList(), true)
+
+        /**
+         * matches rows matched by any filter
+         */
+        @JvmStatic
+        fun or(vararg filters: RowFilter): RowFilter = CompositeFilter(filters.toList(), false)
+
+        /**
+         * returns the columns a filter reads, or null if unknown (a custom filter)
+         */
+        internal fun columnsOf(filter: RowFilter): Set<String>? = when (filter) {
+            is ColumnFilter -> setOf(filter.column)
+            is CompositeFilter -> {
+                val cs = filter.filters.map { columnsOf(it) }
+                if (cs.any { it == null }) null else cs.flatMap { it!! }.toSet()
+            }
+
+            else -> null
+        }
+    }
+}
+
+/**
+ * compares one column of a row with a constant on the raw token
+ */
+internal class ColumnFilter(val column: String, private val op: Op, private val operand: Any?) : RowFilter {
+
+    enum class Op { EQ, NE, GT, GE, LT, LE }
+
+    /**
+     * Column index for the last seen field list, one reference so concurrent blocks never see a mismatched pair
+     */
+    private var resolved: Pair<List<FieldInfo>, Int>? = null
+
+    override fun test(row: RowView): Boolean {
+        var r = resolved
+        if (r == null || r.first !== row.fields) {
+            r = row.fields to row.indexOf(column)
+            resolved = r
+        }
+        val c = compare(row, r.second) ?: return op == Op.NE
+        return when (op) {
+            Op.EQ -> c == 0
+            Op.NE -> c != 0
+            Op.GT -> c > 0
+            Op.GE -> c >= 0
+            Op.LT -> c < 0
+            Op.LE -> c <= 0
+        }
+    }
+
+    /**
+     * compares the cell with the operand, null if they are not comparable
+     */
+    private fun compare(row: RowView, index: Int): Int? {
+        if (operand == null) {
+            return if (row.isNull(index)) 0 else 1
+        }
+        if (row.isNull(index)) {
+            return null
+        }
+        return when (operand) {
+            is Boolean -> {
+                val b = row[index]?.asBool() ?: return null
+                b.compareTo(operand)
+            }
+
+            is Long, is Int, is Short, is Byte -> {
+                val token = row.token(index)!!
+                val l = TypeHint.parseLong(token)
+                if (l != null) {
+                    l.compareTo((operand as Number).toLong())
+                } else {
+                    TypeHint.parseDouble(token)?.compareTo(operand.toDouble())
+                }
+            }
+
+            is Number -> TypeHint.parseDouble(row.token(index)!!)?.compareTo(operand.toDouble())
+            else -> row.token(index)!!.compareTo(operand.toString())
+        }
+    }
+}
+
+internal class CompositeFilter(val filters: List<RowFilter>, private val all: Boolean) : RowFilter {
+
+    override fun test(row: RowView): Boolean = if (all) filters.all { it.test(row) } else filters.any { it.test(row) }
+
+}
@@ -0,0 +1,39 @@
+package com.rarnu.ison
+
+/**
+ * the field names of a block and their positions, shared by its ArrayRows
+ * A repeated name keeps its first position
+ */
+class RowLayout(names: List<String>) {
+
+    /**
+     * Distinct field names in order
+     */
+    val names: Array<String>
+
+    private val index = HashMap<String, Int>(names.size * 2)
+
+    init {
+        val distinct = mutableListOf<String>()
+        for (name in names) {
+            if (!index.containsKey(name)) {
+                index[name] = distinct.size
+                distinct.add(name)
+            }
+        }
+        this.names = distinct.toTypedArray()
+    }
+
+    val size: Int get() = names.size
+
+    /**
+     * returns the position of a field name, or -1
+     */
+    fun indexOf(name: String): Int = index[name] ?: -1
+
+    companion object {
+        @JvmStatic
+        fun of(fields: List<FieldInfo>): RowLayout = RowLayout(fields.map { it.name })
+    }
+
+}
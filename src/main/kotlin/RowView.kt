@@ -0,0 +1,188 @@
+package com.rarnu.ison
+
+import com.rarnu.ison.Parser.Companion.parseBoolToken
+
+/**
+ * a reusable view of the row being parsed, values are decoded only when read
+ */
+class RowView internal constructor(private val scanner: Scanner) {
+
+    /**
+     * Field definitions of the current block
+     */
+    var fields: List<FieldInfo> = emptyList()
+        private set
+
+    /**
+     * Number of cells present in the row, at most fields.size
+     */
+    var size: Int = 0
+        private set
+
+    /**
+     * Raw token spans as start/end pairs into the scanned text
+     */
+    private var spans = IntArray(32)
+
+    /**
+     * Type hints of the current block, compiled when the fields change
+     */
+    private var hints: Array<TypeHint> = emptyArray()
+
+    /**
+     * Layout and cell positions for toRow, built on first use for the current fields
+     */
+    private var layout: RowLayout? = null
+    private var slots = IntArray(0)
+
+    internal fun reset(fields: List<FieldInfo>) {
+        if (fields !== this.fields) {
+            this.fields = fields
+            hints = TypeHint.compile(fields)
+            layout = null
+        }
+        if (spans.size < fields.size * 2) {
+            spans = IntArray(fields.size * 2)
+        }
+        size = 0
+    }
+
+    internal fun add(start: Int, end: Int) {
+        spans[size * 2] = start
+        spans[size * 2 + 1] = end
+        size++
+    }
+
+    /**
+     * copies the cells selected by mask (all if null) into a LazyRow over rowLayout and rowHints
+     */
+    internal fun toLazyRow(rowLayout: RowLayout, rowHints: Array<TypeHint>, mask: BooleanArray?): LazyRow {
+        if (mask == null) {
+            return LazyRow(scanner.text, rowLayout, rowHints, spans.copyOf(size * 2))
+        }
+        var n = 0
+        for (i in 0 until size) {
+            if (mask[i]) n++
+        }
+        val selected = IntArray(n * 2)
+        var j = 0
+        for (i in 0 until size) {
+            if (mask[i]) {
+                selected[j++] = spans[i * 2]
+                selected[j++] = spans[i * 2 + 1]
+            }
+        }
+        return LazyRow(scanner.text, rowLayout, rowHints, selected)
+    }
+
+    /**
+     * appends cell i to a column straight from its token span, a missing cell as null
+     */
+    internal fun addTo(i: Int, column: ColumnBuilder) {
+        if (i < size) {
+            column.add(scanner.text, spans[i * 2], spans[i * 2 + 1], hints[i], scanner.buffer)
+        } else {
+            column.add(null)
+        }
+    }
+
+    /**
+     * returns the index of the named field, or -1
+     */
+    fun indexOf(name: String): Int {
+        for (i in fields.indices) {
+            if (fields[i].name == name) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    /**
+     * returns the token of a cell with quotes removed and escapes resolved, or null if the cell is missing
+     */
+    fun token(i: Int): String? = if (i in 0 until size) scanner.token(spans[i * 2], spans[i * 2 + 1]) else null
+
+    fun token(name: String): String? = token(indexOf(name))
+
+    /**
+     * decodes a cell into a Value using its field's type hint, or null if the cell is missing
+     */
+    operator fun get(i: Int): Value? {
+        if (i !in 0 until size) {
+            return null
+        }
+        return hints[i].decode(scanner.text, spans[i * 2], spans[i * 2 + 1], scanner.buffer)
+    }
+
+    operator fun get(name: String): Value? = get(indexOf(name))
+
+    /**
+     * returns true if the cell is a null (~, null, NULL) or missing
+     */
+    fun isNull(i: Int): Boolean {
+        val t = token(i)
+        return t == null || t == "~" || t == "null" || t == "NULL"
+    }
+
+    fun isNull(name: String): Boolean = isNull(indexOf(name))
+
+    /**
+     * returns a cell as an integer without building a Value
+     */
+    fun longValue(i: Int): Long = token(i)!!.toLong()
+
+    fun longValue(name: String): Long = longValue(indexOf(name))
+
+    /**
+     * returns a cell as a float without building a Value
+     */
+    fun doubleValue(i: Int): Double = token(i)!!.toDouble()
+
+    fun doubleValue(name: String): Double = doubleValue(indexOf(name))
+
+    /**
+     * returns a cell as a boolean (true/TRUE/1 or false/FALSE/0) without building a Value
+     */
+    fun booleanValue(i: Int): Boolean = parseBoolToken(token(i)!!)
+
+    fun booleanValue(name: String): Boolean = booleanValue(indexOf(name))
+
+    /**
+     * copies the row into a Row map
+     */
+    fun toRow(): Row {
+        var l = layout
+        if (l == null) {
+            l = RowLayout.of(fields)
+            slots = slotsOf(fields, l, null)
+            layout = l
+        }
+        return toRow(l, slots, null)
+    }
+
+    /**
+     * copies the cells into an ArrayRow at their slots (-1 drops a cell), taking Values from dicts where given
+     */
+    internal fun toRow(layout: RowLayout, slots: IntArray, dicts: Array<ValueDict?>?): Row {
+        val values = arrayOfNulls<Value>(layout.size)
+        for (i in 0 until size) {
+            val slot = slots[i]
+            if (slot >= 0) {
+                val dict = dicts?.get(i)
+                values[slot] = dict?.value(scanner, spans[i * 2], spans[i * 2 + 1], hints[i]) ?: get(i)!!
+            }
+        }
+        return ArrayRow(layout, values)
+    }
+
+    internal companion object {
+
+        /**
+         * returns the layout position of each field, -1 for fields not selected by mask
+         */
+        fun slotsOf(fields: List<FieldInfo>, layout: RowLayout, mask: BooleanArray?): IntArray =
+            IntArray(fields.size) { if (mask == null || mask[it]) layout.indexOf(fields[it].name) else -1 }
+    }
+
+}
@@ -0,0 +1,430 @@
+package com.rarnu.ison
+
+import java.io.Reader
+
+/**
+ * walks ISON text once with a cursor, finding lines, headers and tokens without building line Strings
+ */
+class Scanner @JvmOverloads constructor(
+    val text: CharSequence,
+    /**
+     * Offset of the next unread line
+     */
+    var pos: Int = 0,
+    /**
+     * Offset where scanning stops
+     */
+    end: Int = text.length
+) {
+
+    /**
+     * Offset where scanning stops, grows as a reader-backed scanner fills its buffer
+     */
+    var end: Int = end
+        private set
+
+    private var reader: Reader? = null
+
+    /**
+     * True while more input may be fed, an unterminated last line is then held back
+     */
+    internal var open: Boolean = false
+        private set
+
+    /**
+     * True if the text is a window over a reader, offsets are then only valid for the current line
+     */
+    var streaming: Boolean = false
+        private set
+
+    /**
+     * scans a reader through a bounded buffer that grows only for a line that does not fit
+     */
+    @JvmOverloads
+    constructor(reader: Reader, bufferSize: Int = DEFAULT_BUFFER_SIZE) : this(CharWindow(CharArray(bufferSize)), 0, 0) {
+        this.reader = reader
+        this.streaming = true
+    }
+
+    /**
+     * Start of the current line, after leading whitespace
+     */
+    var lineStart: Int = pos
+        private set
+
+    /**
+     * End of the current line, before trailing whitespace
+     */
+    var lineEnd: Int = pos
+        private set
+
+    /**
+     * Raw span of the last token returned by nextToken, including quotes
+     */
+    var tokenStart: Int = pos
+        private set
+    var tokenEnd: Int = pos
+        private set
+
+    private var rawLineStart = pos
+    private var cursor = pos
+    private var limit = pos
+    internal val buffer = StringBuilder()
+
+    /**
+     * UTF-8 bytes seen as chars are trimmed only by ASCII whitespace
+     */
+    private val bytes = text is MappedText
+
+    /**
+     * Vectorized delimiter search, or null for other texts or without the Vector API (see Delimiters)
+     */
+    private val skip: DelimiterSkip? = Delimiters.finder?.let { finder ->
+        when (text) {
+            is CharWindow -> DelimiterSkip { from, to -> finder.find(text.chars, from, to) }
+            is String, is MappedText -> LineSkip(finder)
+            else -> null
+        }
+    }
+
+    /**
+     * advances to the next line, returns false at the end of the input
+     */
+    fun nextLine(): Boolean {
+        var e = indexOf('\n', pos, end)
+        while (e < 0 && reader != null) {
+            val scanned = end - pos
+            if (!fill()) {
+                break
+            }
+            e = indexOf('\n', pos + scanned, end)
+        }
+        if (pos >= end || (e < 0 && open)) {
+            return false
+        }
+        rawLineStart = pos
+        if (e < 0) {
+            e = end
+            pos = end
+        } else {
+            pos = e + 1
+        }
+        var s = rawLineStart
+        while (s < e && isSpace(text[s])) s++
+        while (e > s && isSpace(text[e - 1])) e--
+        lineStart = s
+        lineEnd = e
+        cursor = s
+        limit = e
+        return true
+    }
+
+    /**
+     * steps back so that the next call to nextLine returns the current line again
+     */
+    fun unread() {
+        pos = rawLineStart
+    }
+
+    /**
+     * returns true if the current line is empty or whitespace only
+     */
+    fun isBlank(): Boolean = lineStart == lineEnd
+
+    /**
+     * returns true if the current line is a comment
+     */
+    fun isComment(): Boolean = lineStart < lineEnd && text[lineStart] == '#'
+
+    /**
+     * returns true if the current line is the summary separator "---"
+     */
+    fun isSeparator(): Boolean = regionEquals(lineStart, lineEnd, "---")
+
+    /**
+     * returns the block kind if the current line is a block header (e.g., table.users), otherwise null
+     */
+    fun headerKind(): String? {
+        for (kind in KINDS) {
+            val dot = lineStart + kind.length
+            if (dot < lineEnd && text[dot] == '.' && regionEquals(lineStart, dot, kind)) {
+                return kind
+            }
+        }
+        return null
+    }
+
+    /**
+     * returns the block name of the current header line, only valid after headerKind returned a kind
+     */
+    fun headerName(kind: String): String = substring(lineStart + kind.length + 1, lineEnd)
+
+    /**
+     * returns the current line as a string
+     */
+    fun line(): String = substring(lineStart, lineEnd)
+
+    /**
+     * restricts tokenizing of the current line to the given range
+     */
+    fun tokens(from: Int, to: Int) {
+        cursor = from
+        limit = to
+    }
+
+    /**
+     * skips the remaining tokens of the current line
+     */
+    fun skipTokens() {
+        cursor = limit
+    }
+
+    /**
+     * returns the next token of the current line with quotes removed and escapes resolved,
+     * or null when the line has no more tokens
+     */
+    fun nextToken(): String? = if (skipToken()) token(tokenStart, tokenEnd) else null
+
+    /**
+     * finds the raw span of the next token of the current line without decoding it,
+     * returns false when the line has no more tokens
+     */
+    fun skipToken(): Boolean {
+        val span = Tokenizer.span(text, cursor, limit, skip)
+        if (span < 0) {
+            cursor = limit
+            return false
+        }
+        tokenStart = (span ushr 32).toInt()
+        tokenEnd = span.toInt()
+        cursor = tokenEnd
+        return true
+    }
+
+    /**
+     * decodes the raw token span [from, to) of the current line
+     */
+    fun token(from: Int, to: Int): String = decodeToken(text, from, to, buffer)
+
+    /**
+     * returns the index of ch in [from, to), or -1
+     */
+    fun indexOf(ch: Char, from: Int, to: Int): Int {
+        if (text is String && to == text.length) {
+            return text.indexOf(ch, from)
+        }
+        for (i in from until to) {
+            if (text[i] == ch) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    /**
+     * returns true if the text in [from, to) equals s
+     */
+    fun regionEquals(from: Int, to: Int, s: String): Boolean {
+        if (to - from != s.length) {
+            return false
+        }
+        for (i in s.indices) {
+            if (text[from + i] != s[i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    fun substring(from: Int, to: Int): String = if (text is MappedText) text.decode(from, to) else text.subSequence(from, to).toString()
+
+    private fun isSpace(ch: Char): Boolean = ch.isWhitespace() && (!bytes || ch < '\u0080')
+
+    /**
+     * reads more input after dropping the consumed part of the buffer, returns false at the end
+     */
+    private fun fill(): Boolean {
+        val r = reader ?: return false
+        val window = compact(1)
+        val n = r.read(window.chars, end, window.chars.size - end)
+        if (n < 0) {
+            reader = null
+            return false
+        }
+        end += n
+        return true
+    }
+
+    /**
+     * appends input to a scanner created by fed()
+     */
+    internal fun feed(chars: CharSequence) {
+        val window = compact(chars.length)
+        if (chars is String) {
+            chars.toCharArray(window.chars, end, 0, chars.length)
+        } else {
+            for (i in chars.indices) {
+                window.chars[end + i] = chars[i]
+            }
+        }
+        end += chars.length
+    }
+
+    /**
+     * marks the end of fed input, the last line is then returned even without a line break
+     */
+    internal fun finish() {
+        open = false
+    }
+
+    /**
+     * moves the unread tail to the start of the buffer and grows it to fit at least n more chars
+     */
+    private fun compact(n: Int): CharWindow {
+        val window = text as CharWindow
+        if (pos > 0) {
+            System.arraycopy(window.chars, pos, window.chars, 0, end - pos)
+            end -= pos
+            pos = 0
+        }
+        if (end + n > window.chars.size) {
+            window.chars = window.chars.copyOf(maxOf(window.chars.size * 2, end + n))
+        }
+        return window
+    }
+
+    /**
+     * searches an immutable text through a reused copy of the current line, so each line is read twice
+     */
+    private inner class LineSkip(private val finder: DelimiterFinder) : DelimiterSkip {
+
+        private var chars = CharArray(0)
+        private var bytes = ByteArray(0)
+
+        /**
+         * Text range held by the array
+         */
+        private var base = 0
+        private var copied = 0
+
+        override fun skip(from: Int, to: Int): Int {
+            if (from < base || to > copied) {
+                if (from < lineStart || to > lineEnd) {
+                    // Outside the current line, the caller goes on char by char
+                    return from
+                }
+                copyLine()
+            }
+            return base + if (text is MappedText) {
+                finder.find(bytes, from - base, to - base)
+            } else {
+                finder.find(chars, from - base, to - base)
+            }
+        }
+
+        private fun copyLine() {
+            val n = lineEnd - lineStart
+            if (text is MappedText) {
+                if (bytes.size < n) {
+                    bytes = ByteArray(maxOf(n, bytes.size * 2))
+                }
+                text.copy(lineStart, lineEnd, bytes)
+            } else {
+                if (chars.size < n) {
+                    chars = CharArray(maxOf(n, chars.size * 2))
+                }
+                (text as String).toCharArray(chars, 0, lineStart, lineEnd)
+            }
+            base = lineStart
+            copied = lineEnd
+        }
+    }
+
+    /**
+     * the growable char buffer behind a reader-backed scanner
+     */
+    private class CharWindow(var chars: CharArray) : CharSequence {
+        override val length: Int get() = chars.size
+        override fun get(index: Int): Char = chars[index]
+        override fun subSequence(startIndex: Int, endIndex: Int): CharSequence = String(chars, startIndex, endIndex - startIndex)
+        override fun toString(): String = String(chars)
+    }
+
+    companion object {
+        private const val DEFAULT_BUFFER_SIZE = 64 * 1024
+        private val KINDS = arrayOf("table", "object", "meta")
+
+        /**
+         * creates a scanner over input appended with feed, lines are returned only once complete
+         */
+        internal fun fed(): Scanner = Scanner(CharWindow(CharArray(1024)), 0, 0).also {
+            it.open = true
+            it.streaming = true
+        }
+
+        /**
+         * decodes a raw token span, removing quotes and resolving escapes
+         */
+        @JvmStatic
+        fun decodeToken(text: CharSequence, from: Int, to: Int, buffer: StringBuilder?): String {
+            if (text is MappedText) {
+                val s = text.decode(from, to)
+                return decodeToken(s, 0, s.length, buffer)
+            }
+            var quotes = 0
+            var backslash = false
+            for (i in from until to) {
+                val ch = text[i]
+                if (ch == '"') {
+                    quotes++
+                } else if (ch == '\\') {
+                    backslash = true
+                }
+            }
+            // Tokens without quotes, or quoted as a whole without escapes, are cut from the text as they are
+            if (quotes == 0) {
+                return text.subSequence(from, to).toString()
+            }
+            if (quotes == 2 && !backslash && text[from] == '"' && text[to - 1] == '"') {
+                return text.subSequence(from + 1, to - 1).toString()
+            }
+            val sb = buffer ?: StringBuilder(to - from)
+            sb.setLength(0)
+            if (!backslash) {
+                // Only the quotes are dropped, the runs between them are copied as a whole
+                var run = from
+                for (i in from until to) {
+                    if (text[i] == '"') {
+                        sb.append(text, run, i)
+                        run = i + 1
+                    }
+                }
+                sb.append(text, run, to)
+                return sb.toString()
+            }
+            var inQuotes = false
+            var escaped = false
+            for (i in from until to) {
+                val ch = text[i]
+                if (escaped) {
+                    when (ch) {
+                        'n' -> sb.append('\n')
+                        't' -> sb.append('\t')
+                        '"' -> sb.append('"')
+                        '\\' -> sb.append('\\')
+                        else -> sb.append(ch)
+                    }
+                    escaped = false
+                } else if (ch == '\\' && inQuotes) {
+                    escaped = true
+                } else if (ch == '"') {
+                    inQuotes = !inQuotes
+                } else {
+                    sb.append(ch)
+                }
+            }
+            return sb.toString()
+        }
+    }
+
+}
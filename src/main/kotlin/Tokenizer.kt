@@ -0,0 +1,128 @@
+package com.rarnu.ison
+
+/**
+ * splits a line into tokens, recording raw offsets and copying text only when a token is read
+ * Instances are not thread-safe, see local()
+ */
+class Tokenizer {
+
+    private var text: CharSequence = ""
+    private var spans = IntArray(32)
+    private val buffer = StringBuilder()
+
+    /**
+     * Number of tokens found by the last call to tokenize
+     */
+    var size: Int = 0
+        private set
+
+    /**
+     * finds the tokens of text[from, to), replacing those of the previous call
+     */
+    @JvmOverloads
+    fun tokenize(text: CharSequence, from: Int = 0, to: Int = text.length): Tokenizer {
+        this.text = text
+        size = 0
+        var i = from
+        while (true) {
+            val span = span(text, i, to, null)
+            if (span < 0) {
+                return this
+            }
+            if (spans.size < size * 2 + 2) {
+                spans = spans.copyOf(spans.size * 2)
+            }
+            spans[size * 2] = (span ushr 32).toInt()
+            i = span.toInt()
+            spans[size * 2 + 1] = i
+            size++
+        }
+    }
+
+    /**
+     * Raw span of a token, including quotes
+     */
+    fun start(i: Int): Int = spans[i * 2]
+
+    fun end(i: Int): Int = spans[i * 2 + 1]
+
+    /**
+     * returns a token with quotes removed and escapes resolved
+     */
+    fun token(i: Int): String {
+        if (i !in 0 until size) {
+            throw IndexOutOfBoundsException("token $i of $size")
+        }
+        return Scanner.decodeToken(text, spans[i * 2], spans[i * 2 + 1], buffer)
+    }
+
+    /**
+     * returns all tokens as strings
+     */
+    fun toList(): List<String> = List(size) { token(it) }
+
+    /**
+     * drops the text and tokens of the last call so the tokenizer does not keep the text alive
+     */
+    fun clear() {
+        text = ""
+        size = 0
+        buffer.setLength(0)
+    }
+
+    companion object {
+        private val LOCAL = ThreadLocal.withInitial { Tokenizer() }
+
+        /**
+         * returns the tokenizer of the current thread
+         */
+        @JvmStatic
+        fun local(): Tokenizer = LOCAL.get()
+
+        /**
+         * finds the raw span of the first token in text[from, to) as start shl 32 or end, or -1
+         * skip, if given, jumps over chars that cannot end a token
+         */
+        internal fun span(text: CharSequence, from: Int, to: Int, skip: DelimiterSkip?): Long {
+            var i = from
+            while (i < to) {
+                var ch = text[i]
+                if (ch == ' ' || ch == '\t') {
+                    i++
+                    continue
+                }
+                val start = i
+                var inQuotes = false
+                var escaped = false
+                var empty = true
+                while (i < to) {
+                    ch = text[i]
+                    if (escaped) {
+                        escaped = false
+                        empty = false
+                    } else if (ch == '\\' && inQuotes) {
+                        escaped = true
+                    } else if (ch == '"') {
+                        inQuotes = !inQuotes
+                    } else if (!inQuotes && (ch == ' ' || ch == '\t')) {
+                        break
+                    } else {
+                        empty = false
+                        if (skip != null) {
+                            // Jump over the chars that cannot change state
+                            i = skip.skip(i + 1, to)
+                            continue
+                        }
+                    }
+                    i++
+                }
+                // an empty quoted token ("") yields nothing
+                if (!empty) {
+                    return (start.toLong() shl 32) or i.toLong()
+                }
+            }
+            return -1
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+package com.rarnu.ison
+
+/**
+ * a field type hint compiled once per block, decodes tokens without re-dispatching on the hint string
+ */
+enum class TypeHint {
+    /**
+     * No or unknown hint, the type is inferred
+     */
+    HintAuto {
+        override fun decode(token: String): Value = special(token) ?: infer(token)
+    },
+    HintInt {
+        override fun decode(token: String): Value {
+            special(token)?.let { return it }
+            val v = parseLong(token) ?: return infer(token)
+            return Value.INT(v)
+        }
+    },
+    HintFloat {
+        override fun decode(token: String): Value {
+            special(token)?.let { return it }
+            val v = parseDouble(token) ?: return infer(token)
+            return Value.FLOAT(v)
+        }
+    },
+    HintBool {
+        override fun decode(token: String): Value {
+            special(token)?.let { return it }
+            if (token.length == 1) {
+                if (token[0] == '1') {
+                    return Value.BOOL(true)
+                }
+                if (token[0] == '0') {
+                    return Value.BOOL(false)
+                }
+            }
+            return infer(token)
+        }
+    },
+    HintString {
+        override fun decode(token: String): Value = special(token) ?: Value.STRING(token)
+    },
+    HintRef {
+        // References start with ':' and are handled by special
+        override fun decode(token: String): Value = special(token) ?: Value.STRING(token)
+    };
+
+    /**
+     * decodes a token into a Value
+     */
+    abstract fun decode(token: String): Value
+
+    /**
+     * decodes the raw token span text[from, to), reading nulls, booleans and plain integers without a String
+     */
+    fun decode(text: CharSequence, from: Int, to: Int, buffer: StringBuilder?): Value {
+        if (to > from) {
+            when (text[from]) {
+                '~' -> if (to - from == 1) return Value.NULL()
+                'n' -> if (regionEquals(text, from, to, "null")) return Value.NULL()
+                'N' -> if (regionEquals(text, from, to, "NULL")) return Value.NULL()
+                't' -> if (regionEquals(text, from, to, "true")) return Value.BOOL(true)
+                'T' -> if (regionEquals(text, from, to, "TRUE")) return Value.BOOL(true)
+                'f' -> if (regionEquals(text, from, to, "false")) return Value.BOOL(false)
+                'F' -> if (regionEquals(text, from, to, "FALSE")) return Value.BOOL(false)
+            }
+            when (this) {
+                HintInt, HintAuto -> if (isPlainLong(text, from, to, 18)) {
+                    return Value.INT(spanLong(text, from, to))
+                }
+
+                // Up to 15 digits convert exactly, -0 must stay a negative zero
+                HintFloat -> if (isPlainLong(text, from, to, 15) && text[from] != '-') {
+                    return Value.FLOAT(spanLong(text, from, to).toDouble())
+                }
+
+                HintBool -> if (to - from == 1 && (text[from] == '1' || text[from] == '0')) {
+                    return Value.BOOL(text[from] == '1')
+                }
+
+                else -> {}
+            }
+        }
+        return decode(Scanner.decodeToken(text, from, to, buffer))
+    }
+
+    /**
+     * returns true if this hint reads the raw span as an integer spanLong can parse
+     */
+    internal fun isSpanLong(text: CharSequence, from: Int, to: Int): Boolean =
+        (this == HintInt || this == HintAuto) && to > from && isPlainLong(text, from, to, 18)
+
+    /**
+     * decodes a raw span this hint reads as a number into a double, or returns NaN for any other token
+     */
+    internal fun spanDouble(text: CharSequence, from: Int, to: Int, buffer: StringBuilder?): Double {
+        if (to == from || this == HintBool || this == HintString || this == HintRef) {
+            return Double.NaN
+        }
+        if (isPlainLong(text, from, to, 15)) {
+            val v = spanLong(text, from, to)
+            // A float hint keeps the sign of -0
+            return if (v == 0L && this == HintFloat && text[from] == '-') -0.0 else v.toDouble()
+        }
+        val c0 = text[from]
+        if (c0 !in '0'..'9' && c0 != '-' && c0 != '+' && c0 != '.') {
+            return Double.NaN
+        }
+        val token = Scanner.decodeToken(text, from, to, buffer)
+        return if (shape(token) == SHAPE_FLOAT) java.lang.Double.parseDouble(token) else Double.NaN
+    }
+
+    /**
+     * returns the token of a raw span this hint decodes as a string, or null for any other token
+     */
+    internal fun spanString(text: CharSequence, from: Int, to: Int, buffer: StringBuilder?): String? {
+        if (this != HintString && this != HintRef && this != HintAuto) {
+            return null
+        }
+        val token = Scanner.decodeToken(text, from, to, buffer)
+        if (token.isEmpty()) {
+            return token
+        }
+        val c0 = token[0]
+        if (c0 == ':' || special(token) != null) {
+            return null
+        }
+        // The same screen infer uses for tokens that cannot be numbers
+        if (this == HintAuto && (c0 in '0'..'9' || c0 == '-' || c0 == '+' || c0 == '.' || c0 == 'N' || c0 == 'I' || c0 <= ' ' || c0 >= '\u0080')) {
+            return null
+        }
+        return token
+    }
+
+    companion object {
+
+        @JvmStatic
+        fun of(typeHint: String): TypeHint = when (typeHint) {
+            "int" -> HintInt
+            "float" -> HintFloat
+            "bool" -> HintBool
+            "string" -> HintString
+            "ref" -> HintRef
+            else -> HintAuto
+        }
+
+        /**
+         * compiles the type hints of a field list
+         */
+        @JvmStatic
+        fun compile(fields: List<FieldInfo>): Array<TypeHint> = Array(fields.size) { of(fields[it].typeHint) }
+
+        private fun regionEquals(text: CharSequence, from: Int, to: Int, s: String): Boolean {
+            if (to - from != s.length) {
+                return false
+            }
+            for (i in s.indices) {
+                if (text[from + i] != s[i]) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        /**
+         * returns true if text[from, to) is an optional sign followed by 1 to maxDigits ASCII digits
+         */
+        private fun isPlainLong(text: CharSequence, from: Int, to: Int, maxDigits: Int): Boolean {
+            var i = from
+            if (text[i] == '-' || text[i] == '+') {
+                i++
+            }
+            if (i == to || to - i > maxDigits) {
+                return false
+            }
+            while (i < to) {
+                if (text[i] !in '0'..'9') {
+                    return false
+                }
+                i++
+            }
+            return true
+        }
+
+        /**
+         * parses a span accepted by isPlainLong
+         */
+        internal fun spanLong(text: CharSequence, from: Int, to: Int): Long {
+            var i = from
+            val neg = text[i] == '-'
+            if (neg || text[i] == '+') {
+                i++
+            }
+            var v = 0L
+            while (i < to) {
+                v = v * 10 + (text[i] - '0')
+                i++
+            }
+            return if (neg) -v else v
+        }
+
+        /**
+         * decodes nulls, booleans and references, which take precedence over any hint
+         */
+        private fun special(token: String): Value? {
+            if (token.isEmpty()) {
+                return null
+            }
+            when (token[0]) {
+                '~' -> if (token.length == 1) return Value.NULL()
+                'n' -> if (token == "null") return Value.NULL()
+                'N' -> if (token == "NULL") return Value.NULL()
+                't' -> if (token == "true") return Value.BOOL(true)
+                'T' -> if (token == "TRUE") return Value.BOOL(true)
+                'f' -> if (token == "false") return Value.BOOL(false)
+                'F' -> if (token == "FALSE") return Value.BOOL(false)
+                ':' -> return Value.ownRef(Parser.parseReference(token))
+            }
+            return null
+        }
+
+        /**
+         * infers an integer, float or string in one pass, only exotic numbers take the library parsers
+         */
+        private fun infer(token: String): Value {
+            if (token.isEmpty()) {
+                return Value.STRING(token)
+            }
+            val c0 = token[0]
+            // Neither toLongOrNull nor toDoubleOrNull accepts any other leading ASCII char
+            if (c0 !in '0'..'9' && c0 != '-' && c0 != '+' && c0 != '.' && c0 != 'N' && c0 != 'I' && c0 > ' ' && c0 < '\u0080') {
+                return Value.STRING(token)
+            }
+            when (shape(token)) {
+                SHAPE_INT -> {
+                    // Out of range integers are still valid floats
+                    val v = parseLong(token) ?: return Value.FLOAT(java.lang.Double.parseDouble(token))
+                    return Value.INT(v)
+                }
+                SHAPE_FLOAT -> return Value.FLOAT(java.lang.Double.parseDouble(token))
+            }
+            val vi = token.toLongOrNull()
+            if (vi != null) {
+                return Value.INT(vi)
+            }
+            val vf = token.toDoubleOrNull()
+            if (vf != null) {
+                return Value.FLOAT(vf)
+            }
+            return Value.STRING(token)
+        }
+
+        private const val SHAPE_OTHER = 0
+        private const val SHAPE_INT = 1
+        private const val SHAPE_FLOAT = 2
+
+        /**
+         * classifies a token as a plain decimal integer, a plain decimal float or anything else
+         */
+        private fun shape(s: String): Int {
+            val n = s.length
+            var i = 0
+            if (s[0] == '-' || s[0] == '+') {
+                i++
+            }
+            var digits = 0
+            while (i < n && s[i] in '0'..'9') {
+                i++
+                digits++
+            }
+            var float = false
+            if (i < n && s[i] == '.') {
+                float = true
+                i++
+                while (i < n && s[i] in '0'..'9') {
+                    i++
+                    digits++
+                }
+            }
+            if (digits == 0) {
+                return SHAPE_OTHER
+            }
+            if (i < n && (s[i] == 'e' || s[i] == 'E')) {
+                float = true
+                i++
+                if (i < n && (s[i] == '-' || s[i] == '+')) {
+                    i++
+                }
+                val expStart = i
+                while (i < n && s[i] in '0'..'9') {
+                    i++
+                }
+                if (i == expStart) {
+                    return SHAPE_OTHER
+                }
+            }
+            return when {
+                i < n -> SHAPE_OTHER
+                float -> SHAPE_FLOAT
+                else -> SHAPE_INT
+            }
+        }
+
+        /**
+         * parses a float, same results as toDoubleOrNull but plain decimals skip its regex screening
+         */
+        @JvmStatic
+        fun parseDouble(s: String): Double? {
+            if (s.isEmpty()) {
+                return null
+            }
+            return if (shape(s) != SHAPE_OTHER) java.lang.Double.parseDouble(s) else s.toDoubleOrNull()
+        }
+
+        /**
+         * parses a decimal integer with a plain digit loop, same results as toLongOrNull
+         */
+        @JvmStatic
+        fun parseLong(s: String): Long? {
+            val n = s.length
+            if (n == 0) {
+                return null
+            }
+            var i = 0
+            val c0 = s[0]
+            if (c0 == '-' || c0 == '+') {
+                if (n == 1) {
+                    return null
+                }
+                i = 1
+            }
+            // 18 digits never overflow, longer input takes the checked path
+            if (n - i > 18) {
+                return s.toLongOrNull()
+            }
+            var v = 0L
+            while (i < n) {
+                val ch = s[i]
+                if (ch !in '0'..'9') {
+                    // toLongOrNull also accepts non-ASCII digits
+                    return if (ch < '\u0080') null else s.toLongOrNull()
+                }
+                v = v * 10 + (ch - '0')
+                i++
+            }
+            return if (c0 == '-') -v else v
+        }
+    }
+}
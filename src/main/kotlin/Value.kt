@@ -4,52 +4,124 @@ import com.isyscore.kotlin.common.toJson
 
 /**
  * represents an ISON value which can be null, bool, int, float, string, or reference
+ * Values are immutable
  */
-data class Value @JvmOverloads constructor(
-    var type: ValueType,
-    var boolVal: Boolean = false,
-    var intVal: Long = 0L,
-    var floatVal: Double = 0.0,
-    var stringVal: String = "",
-    var refVal: Reference = Reference()
+class Value private constructor(
+    val type: ValueType,
+    /**
+     * The integer, the float bits or 1/0 for a boolean
+     */
+    private val bits: Long,
+    /**
+     * The String or Reference, a Reference is owned by the Value and never handed out
+     */
+    private val obj: Any?
 ) {
 
+    /**
+     * creates a Value from per type fields, only the field matching type is kept
+     */
+    @Deprecated("use the factories, e.g. Value.INT(v)")
+    @JvmOverloads
+    constructor(
+        type: ValueType,
+        boolVal: Boolean = false,
+        intVal: Long = 0L,
+        floatVal: Double = 0.0,
+        stringVal: String = "",
+        refVal: Reference = Reference()
+    ) : this(
+        type,
+        when (type) {
+            ValueType.TypeBool -> if (boolVal) 1L else 0L
+            ValueType.TypeInt -> intVal
+            ValueType.TypeFloat -> floatVal.toRawBits()
+            else -> 0L
+        },
+        when (type) {
+            ValueType.TypeString -> stringVal
+            ValueType.TypeReference -> refVal.copy()
+            else -> null
+        }
+    )
+
+    val boolVal: Boolean get() = type == ValueType.TypeBool && bits != 0L
+
+    val intVal: Long get() = if (type == ValueType.TypeInt) bits else 0L
+
+    val floatVal: Double get() = if (type == ValueType.TypeFloat) Double.fromBits(bits) else 0.0
+
+    val stringVal: String get() = if (type == ValueType.TypeString) obj as String else ""
+
+    /**
+     * returns a copy of the reference, changing it does not change the Value
+     */
+    val refVal: Reference get() = if (type == ValueType.TypeReference) (obj as Reference).copy() else Reference()
+
+    /**
+     * The reference itself for read-only use inside the library, or null
+     */
+    internal val ref: Reference? get() = obj as? Reference
+
     companion object {
+        private val NULL_VALUE = Value(ValueType.TypeNull, 0L, null)
+        private val TRUE_VALUE = Value(ValueType.TypeBool, 1L, null)
+        private val FALSE_VALUE = Value(ValueType.TypeBool, 0L, null)
+
+        private const val INT_CACHE_LOW = -128L
+        private const val INT_CACHE_MAX = 65535L
+
         /**
-         * creates a null Value
+         * Upper end of the cached integer range, raised with -Dison.intCacheHigh within 127..65535
+         */
+        private val INT_CACHE_HIGH = intCacheHigh(System.getProperty("ison.intCacheHigh"))
+        private val INTS = Array((INT_CACHE_HIGH - INT_CACHE_LOW + 1).toInt()) { Value(ValueType.TypeInt, it + INT_CACHE_LOW, null) }
+
+        /**
+         * reads the ison.intCacheHigh property, clamped, unparsable values keep the default
+         */
+        internal fun intCacheHigh(property: String?): Long = (property?.trim()?.toLongOrNull() ?: 1023L).coerceIn(127L, INT_CACHE_MAX)
+
+        /**
+         * returns the shared null Value
          */
         @JvmStatic
-        fun NULL(): Value = Value(type = ValueType.TypeNull)
+        fun NULL(): Value = NULL_VALUE
 
         /**
-         * creates a boolean Value
+         * returns the shared true or false Value
          */
         @JvmStatic
-        fun BOOL(v: Boolean): Value = Value(type = ValueType.TypeBool, boolVal = v)
+        fun BOOL(v: Boolean): Value = if (v) TRUE_VALUE else FALSE_VALUE
 
         /**
-         * creates an integer Value
+         * creates an integer Value, shared for small integers (see INT_CACHE_HIGH)
          */
         @JvmStatic
-        fun INT(v: Long): Value = Value(type = ValueType.TypeInt, intVal = v)
+        fun INT(v: Long): Value = if (v in INT_CACHE_LOW..INT_CACHE_HIGH) INTS[(v - INT_CACHE_LOW).toInt()] else Value(ValueType.TypeInt, v, null)
 
         /**
          * creates a float Value
          */
         @JvmStatic
-        fun FLOAT(v: Double): Value = Value(type = ValueType.TypeFloat, floatVal = v)
+        fun FLOAT(v: Double): Value = Value(ValueType.TypeFloat, v.toRawBits(), null)
 
         /**
          * creates a string Value
          */
         @JvmStatic
-        fun STRING(v: String): Value = Value(type = ValueType.TypeString, stringVal = v)
+        fun STRING(v: String): Value = Value(ValueType.TypeString, 0L, v)
 
         /**
-         * creates a reference Value
+         * creates a reference Value from a copy of v
          */
         @JvmStatic
-        fun REF(v: Reference): Value = Value(type = ValueType.TypeReference, refVal = v)
+        fun REF(v: Reference): Value = Value(ValueType.TypeReference, 0L, v.copy())
+
+        /**
+         * creates a reference Value that takes over v, which must not be kept or changed by the caller
+         */
+        internal fun ownRef(v: Reference): Value = Value(ValueType.TypeReference, 0L, v)
 
     }
 
@@ -111,9 +183,30 @@ data class Value @JvmOverloads constructor(
             "\"${escaped}\""
         } else stringVal
 
-        ValueType.TypeReference -> refVal.toIson()
+        ValueType.TypeReference -> ref!!.toIson()
     }
 
     fun json(): String = intf().toJson()
 
-}
\ No newline at end of file
+    override fun equals(other: Any?): Boolean {
+        if (this === other) {
+            return true
+        }
+        if (other !is Value || other.type != type) {
+            return false
+        }
+        // Floats compare like Double.equals: NaN equals NaN, 0.0 differs from -0.0
+        return when (type) {
+            ValueType.TypeFloat -> floatVal.equals(other.floatVal)
+            else -> bits == other.bits && obj == other.obj
+        }
+    }
+
+    override fun hashCode(): Int = 31 * type.hashCode() + when (type) {
+        ValueType.TypeFloat -> floatVal.hashCode()
+        else -> bits.hashCode() * 31 + (obj?.hashCode() ?: 0)
+    }
+
+    override fun toString(): String = "Value(type=$type, value=${intf()})"
+
+}
@@ -0,0 +1,64 @@
+package com.rarnu.ison
+
+/**
+ * shares one Value per distinct raw token of a column, up to limit tokens, not thread-safe
+ * Repeats are matched on the token span without building a String
+ */
+internal class ValueDict(private val limit: Int) {
+
+    private var keys = arrayOfNulls<String>(16)
+    private var values = arrayOfNulls<Value>(16)
+    private var count = 0
+
+    /**
+     * returns the shared Value of a raw token span, decoding it with hint on first sight
+     */
+    fun value(scanner: Scanner, from: Int, to: Int, hint: TypeHint): Value {
+        val text = scanner.text
+        var h = 0
+        for (i in from until to) {
+            h = 31 * h + text[i].code
+        }
+        var mask = keys.size - 1
+        var slot = (h xor (h ushr 16)) and mask
+        while (true) {
+            val key = keys[slot] ?: break
+            if (scanner.regionEquals(from, to, key)) {
+                return values[slot]!!
+            }
+            slot = (slot + 1) and mask
+        }
+        val v = hint.decode(text, from, to, scanner.buffer)
+        if (count >= limit) {
+            return v
+        }
+        // Keys keep the raw chars (bytes for mapped text) so they compare directly with spans
+        val raw = CharArray(to - from) { text[from + it] }
+        keys[slot] = String(raw)
+        values[slot] = v
+        count++
+        if (count * 2 > keys.size) {
+            grow()
+        }
+        return v
+    }
+
+    private fun grow() {
+        val oldKeys = keys
+        val oldValues = values
+        keys = arrayOfNulls(oldKeys.size * 2)
+        values = arrayOfNulls(oldKeys.size * 2)
+        val mask = keys.size - 1
+        for (i in oldKeys.indices) {
+            val key = oldKeys[i] ?: continue
+            val h = key.hashCode()
+            var slot = (h xor (h ushr 16)) and mask
+            while (keys[slot] != null) {
+                slot = (slot + 1) and mask
+            }
+            keys[slot] = key
+            values[slot] = oldValues[i]
+        }
+    }
+
+}
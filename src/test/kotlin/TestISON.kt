@@ -3,18 +3,39 @@
 package com.rarnu.ison.test
 
 import com.isyscore.kotlin.common.toObj
+import com.rarnu.ison.ArrayRow
 import com.rarnu.ison.Block
+import com.rarnu.ison.BoolColumn
+import com.rarnu.ison.ColumnarBlock
+import com.rarnu.ison.DoubleColumn
+import com.rarnu.ison.LongColumn
+import com.rarnu.ison.StringColumn
+import com.rarnu.ison.ValueColumn
 import com.rarnu.ison.Document
+import com.rarnu.ison.FieldInfo
+import com.rarnu.ison.FrozenDocument
 import com.rarnu.ison.Dump
 import com.rarnu.ison.DumpsOptions
 import com.rarnu.ison.FromDictOptions
 import com.rarnu.ison.ISON
+import com.rarnu.ison.IsonIndex
+import com.rarnu.ison.ParseOptions
+import com.rarnu.ison.Parser
 import com.rarnu.ison.Reference
+import com.rarnu.ison.RowFilter
+import com.rarnu.ison.RowLayout
+import com.rarnu.ison.Scanner
+import com.rarnu.ison.Tokenizer
+import com.rarnu.ison.TypeHint
 import com.rarnu.ison.Value
 import com.rarnu.ison.ValueType
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
 import org.junit.Test
+import java.io.ByteArrayInputStream
 import java.io.File
+import java.io.StringReader
 
 class TestISON {
 
@@ -670,4 +691,687 @@ a b c d e
         assertEquals(false, opts.autoRefs)
         assertEquals(false, opts.smartOrder)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testParseCRLFAndIndentedLines() {
+        val input = "table.users\r\n  id:int name\r\n  1 Alice  \r\n2 \"Bob Smith\"\r\n\r\nobject.config\r\nkey value\r\ndebug true"
+        val doc = ISON.parse(input)
+        val users = doc.get("users")!!
+        assertEquals(listOf("id", "name"), users.getFieldNames())
+        assertEquals(2, users.rows.size)
+        assertEquals("Alice", users.rows[0]["name"]?.asString())
+        assertEquals("Bob Smith", users.rows[1]["name"]?.asString())
+        assertEquals(true, doc.get("config")!!.rows[0]["value"]?.asBool())
+    }
+
+    @Test
+    fun testParseISONLInterleavedBlocks() {
+        val input = "table.users|id name|1 Alice\r\ntable.orders|id total:float|O1 9.5\r\n# comment\r\ntable.users|id name|2 Bob"
+        val doc = ISON.parseISONL(input)
+        assertEquals(listOf("users", "orders"), doc.order)
+        assertEquals(2, doc.get("users")!!.rows.size)
+        assertEquals(9.5, doc.get("orders")!!.rows[0]["total"]?.asFloat())
+    }
+
+    @Test
+    fun testParseReaderWithSmallBuffer() {
+        val input = """
+# a comment longer than the buffer
+table.users
+id:int name:string email
+1 "Alice Smith" alice@example.com
+2 Bob bob@example.com
+object.config
+key value
+timeout 30
+"""
+        val doc = Parser(Scanner(StringReader(input), 8)).parse()
+        assertEquals(doc.toDict(), ISON.parse(input).toDict())
+        assertEquals("Alice Smith", doc.get("users")!!.rows[0]["name"]?.asString())
+        assertEquals(30L, doc.get("config")!!.rows[0]["value"]?.asInt())
+
+        val isonl = "table.users|id:int name|1 Alice\ntable.users|id:int name|2 Bob\n"
+        val loaded = ISON.loadISONL(ByteArrayInputStream(isonl.toByteArray()))
+        assertEquals(2, loaded.get("users")!!.rows.size)
+    }
+
+    @Test
+    fun testParseLazyValues() {
+        val input = """
+table.users
+id:int name email score:float active
+1 "Alice \"A\" Smith" alice@example.com 9.5 true
+2 Bob ~ 7 false
+"""
+        val doc = ISON.parseWithOptions(input, ParseOptions(lazyValues = true))
+        val users = doc.get("users")!!
+        assertEquals("Alice \"A\" Smith", users.rows[0]["name"]?.asString())
+        assertEquals(true, users.rows[1]["email"]?.isNull())
+        assertEquals(7.0, users.rows[1]["score"]?.asFloat())
+        assertEquals(ISON.parse(input).toDict(), doc.toDict())
+
+        val row = users.rows[1]
+        row["name"] = Value.STRING("Robert")
+        assertEquals("Robert", row["name"]?.asString())
+        assertEquals(listOf("id", "name", "email", "score", "active"), row.keys.toList())
+        assertEquals(2L, row.remove("id")?.asInt())
+        assertEquals(4, row.size)
+    }
+
+    @Test
+    fun testParseProjection() {
+        val input = """
+table.users
+id:int name email active:bool
+1 Alice alice@example.com true
+2 Bob bob@example.com false
+
+object.config
+key value
+debug true
+
+table.orders
+id total
+O1 9.5
+"""
+        val opts = ParseOptions(blocks = setOf("users", "config"), columns = mapOf("users" to setOf("id", "email")))
+        val doc = ISON.parseWithOptions(input, opts)
+        assertEquals(listOf("users", "config"), doc.order)
+        val users = doc.get("users")!!
+        assertEquals(listOf("id", "email"), users.getFieldNames())
+        assertEquals(mapOf("id" to 2L, "email" to "bob@example.com"), users.rows[1].mapValues { (_, v) -> v.intf() })
+        assertEquals(true, doc.get("config")!!.rows[0]["value"]?.asBool())
+
+        val lazy = ISON.parseWithOptions(input, opts.copy(lazyValues = true))
+        assertEquals(doc.toDict(), lazy.toDict())
+
+        val isonl = "table.users|id name|1 Alice\ntable.orders|id|O1\ntable.users|id name|2 Bob"
+        val doc2 = ISON.parseISONLWithOptions(isonl, ParseOptions(blocks = setOf("users"), columns = mapOf("users" to setOf("name"))))
+        assertEquals(listOf("users"), doc2.order)
+        assertEquals(listOf("Alice", "Bob"), doc2.get("users")!!.rows.map { it["name"]?.asString() })
+    }
+
+    @Test
+    fun testParseRowFilters() {
+        val input = """
+table.orders
+id status total:float note
+1 paid 120.5 "first order"
+2 open 80 ~
+3 paid 99.9 ~
+4 paid 300 big
+---
+sum ~ 600.4 ~
+"""
+        val opts = ParseOptions(
+            filters = mapOf("orders" to RowFilter.and(RowFilter.eq("status", "paid"), RowFilter.gt("total", 100))),
+            columns = mapOf("orders" to setOf("id"))
+        )
+        val orders = ISON.parseWithOptions(input, opts).get("orders")!!
+        assertEquals(listOf(1L, 4L), orders.rows.map { it["id"]?.asInt() })
+        assertEquals(listOf("id"), orders.getFieldNames())
+        assert(orders.summaryRow != null)
+
+        val noNote = ISON.parseWithOptions(input, ParseOptions(filters = mapOf("orders" to RowFilter.eq("note", null))))
+        assertEquals(listOf(2L, 3L), noNote.get("orders")!!.rows.map { it["id"]?.asInt() })
+        val custom = ISON.parseWithOptions(input, ParseOptions(filters = mapOf("orders" to RowFilter { it.token(0) == "3" })))
+        assertEquals(1, custom.get("orders")!!.rows.size)
+    }
+
+    @Test
+    fun testMmap() {
+        val input = """
+table.users
+id:int name city
+1 "Zoë Müller" Zürich
+2 Renée à
+3 Bob "São Paulo"
+
+object.config
+key value
+greeting "héllo wörld"
+"""
+        val file = File.createTempFile("test_", ".ison")
+        file.writeText(input)
+        val expected = ISON.parse(input).toDict()
+        assertEquals(expected, ISON.mmap(file.toPath()).toDict())
+        // Small segments force splits at block headers
+        assertEquals(expected, ISON.mmap(file.toPath(), ParseOptions(), false, 100).toDict())
+        assertEquals("à", ISON.mmap(file.toPath()).get("users")!!.rows[1]["city"]?.asString())
+
+        val isonl = ISON.ISONToISONL(input)
+        val isonlFile = File.createTempFile("test_", ".isonl")
+        isonlFile.writeText(isonl)
+        val expectedISONL = ISON.parseISONL(isonl).toDict()
+        assertEquals(expectedISONL, ISON.mmapISONL(isonlFile.toPath()).toDict())
+        assertEquals(expectedISONL, ISON.mmap(isonlFile.toPath(), ParseOptions(lazyValues = true), true, 60).toDict())
+    }
+
+    @Test
+    fun testParseParallelBlocks() {
+        val sb = StringBuilder("# snapshot\n")
+        for (b in 0 until 40) {
+            sb.append("table.t$b\nid:int name score:float\n")
+            for (r in 0 until 50) {
+                sb.append("$r name_${b}_$r ${r * 1.5}\n")
+            }
+            sb.append(if (b % 2 == 0) "\n" else "# next block follows directly\n")
+        }
+        // A fields line that looks like a header is not a block start
+        sb.append("object.odd\ntable.fake\n1\n")
+        val input = sb.toString()
+        val expected = ISON.parse(input)
+        val doc = ISON.parseWithOptions(input, ParseOptions(parallel = true))
+        assertEquals(expected.order, doc.order)
+        assertEquals(expected.toDict(), doc.toDict())
+        assertEquals(listOf("table.fake"), doc.get("odd")!!.getFieldNames())
+
+        val some = ISON.parseWithOptions(input, ParseOptions(parallel = true, blocks = setOf("t3", "t7"), lazyValues = true))
+        assertEquals(listOf("t3", "t7"), some.order)
+        assertEquals("name_7_49", some.get("t7")!!.rows[49]["name"]?.asString())
+    }
+
+    @Test
+    fun testParseParallelRows() {
+        val sb = StringBuilder("table.events\nid:int kind value:float\n")
+        for (r in 0 until 2000) {
+            sb.append("$r ${if (r % 3 == 0) "click" else "view"} ${r / 2.0}\n")
+            if (r % 250 == 0) {
+                sb.append("# checkpoint $r\n")
+            }
+        }
+        sb.append("---\ntotal ~ 999500.0\n\njunk after the block\nobject.meta\nkey value\nrows 2000\n")
+        val input = sb.toString()
+        val opts = ParseOptions(parallel = true, parallelRowThreshold = 1000, rowChunkSize = 512)
+        val expected = ISON.parse(input)
+        val doc = ISON.parseWithOptions(input, opts)
+        assertEquals(expected.toDict(), doc.toDict())
+        assertEquals(2000, doc.get("events")!!.rows.size)
+        assertEquals(999500.0, doc.get("events")!!.summaryRow!!["value"]?.asFloat())
+
+        val clicks = ISON.parseWithOptions(input, opts.copy(filters = mapOf("events" to RowFilter.eq("kind", "click")), lazyValues = true))
+        assertEquals((0 until 2000 step 3).map { it.toLong() }, clicks.get("events")!!.rows.map { it["id"]?.asInt() })
+
+        val isonl = ISON.ISONToISONL(input)
+        assertEquals(ISON.parseISONL(isonl).toDict(), ISON.parseISONLWithOptions(isonl, opts).toDict())
+    }
+
+    @Test
+    fun testISONLChunkFields() {
+        // Later lines of a block declare other fields, they are read against the fields of its first line
+        val sb = StringBuilder()
+        for (r in 0 until 300) {
+            sb.append(if (r % 2 == 0) "table.a|id:int name|$r n$r\n" else "table.a|name id:int|x$r $r\n")
+            if (r % 7 == 0) {
+                sb.append("table.b|k v|$r ${r * 2}\n")
+            }
+        }
+        val isonl = sb.toString()
+        val expected = ISON.parseISONL(isonl)
+        assertEquals(Value.STRING("x1"), expected.get("a")!!.rows[1]["id"])
+        val doc = ISON.parseISONLWithOptions(isonl, ParseOptions(parallel = true, parallelRowThreshold = 1000, rowChunkSize = 256))
+        assertEquals(expected.toDict(), doc.toDict())
+
+        val file = File.createTempFile("test_", ".isonl")
+        file.deleteOnExit()
+        file.writeText(isonl)
+        assertEquals(expected.toDict(), ISON.mmap(file.toPath(), ParseOptions(), true, 200).toDict())
+    }
+
+    @Test
+    fun testTypeHints() {
+        assertEquals(TypeHint.HintInt, TypeHint.of("int"))
+        assertEquals(TypeHint.HintAuto, TypeHint.of("computed"))
+        for (t in listOf("0", "-7", "+12", "123456789012345678", "9223372036854775807", "-9223372036854775808", "9223372036854775808", "1_0", "-", "+", "", "\u0663")) {
+            assertEquals(t, t.toLongOrNull(), TypeHint.parseLong(t))
+        }
+
+        // Nulls, booleans and references win over any hint
+        assertEquals(ValueType.TypeNull, Parser.parseValue("~", "int").type)
+        assertEquals(ValueType.TypeBool, Parser.parseValue("TRUE", "string").type)
+        assertEquals(ValueType.TypeReference, Parser.parseValue(":user:1", "string").type)
+        assertEquals(ValueType.TypeString, Parser.parseValue("~x", "int").type)
+        assertEquals(ValueType.TypeFloat, Parser.parseValue("1.5", "int").type)
+        assertEquals(ValueType.TypeFloat, Parser.parseValue("9223372036854775808", "int").type)
+        assertEquals(ValueType.TypeString, Parser.parseValue("abc", "float").type)
+        assertEquals(true, Parser.parseValue("1", "bool").asBool())
+        assertEquals(ValueType.TypeString, Parser.parseValue("42", "string").type)
+        assertEquals(ValueType.TypeString, Parser.parseValue("42", "ref").type)
+
+        val doc = ISON.parse("table.t\nid:int score:float ok:bool name:string\n1 2 1 3\n~ 2.5 0 \"x y\"\n")
+        val rows = doc.get("t")!!.rows
+        assertEquals(ValueType.TypeFloat, rows[0]["score"]?.type)
+        assertEquals(true, rows[0]["ok"]?.asBool())
+        assertEquals(ValueType.TypeString, rows[0]["name"]?.type)
+        assertEquals(ValueType.TypeNull, rows[1]["id"]?.type)
+        assertEquals("x y", rows[1]["name"]?.asString())
+    }
+
+    @Test
+    fun testNumberInference() {
+        val tokens = listOf(
+            "0", "-0", "+5", "007", "9223372036854775807", "9223372036854775808", "-9223372036854775809",
+            "1.5", "-.5", "5.", "1e10", "1E-3", "+2.5e+7", ".", "-", "1e", "e5", "1.2.3", "12abc",
+            "NaN", "-Infinity", "Infinity", "1f", "2.5d", "0x1p3", "0x10", "\u0663", "hello", "Nope", "Iota", "_1"
+        )
+        for (t in tokens) {
+            val expected = t.toLongOrNull()?.let { Value.INT(it) } ?: t.toDoubleOrNull()?.let { Value.FLOAT(it) } ?: Value.STRING(t)
+            val v = Parser.parseValue(t, "")
+            assertEquals(t, expected.type, v.type)
+            assertEquals(t, expected, v)
+            assertEquals(t, t.toDoubleOrNull(), TypeHint.parseDouble(t))
+        }
+        assertEquals(" 12 ".toDoubleOrNull(), Parser.parseValue(" 12 ", "").asFloat())
+    }
+
+    @Test
+    fun testIndex() {
+        val input = """# settings
+object.config
+key value
+greeting "héllo wörld"
+
+table.users
+id:int name
+# comment
+1 "Zoë Müller"
+2 Renée
+---
+total 2
+table.true
+id
+~
+table.orders
+id user_id
+O1 :user:1
+"""
+        val file = File.createTempFile("test_", ".ison")
+        file.writeText(input)
+        val path = file.toPath()
+        val index = ISON.index(path)
+        assertEquals(listOf("config", "users", "true", "orders"), index.names())
+        val users = index.get("users")!!
+        assertEquals(input.toByteArray().size.toLong(), index.get("orders")!!.let { it.offset + it.length })
+        assertEquals("id:int name", users.fields)
+        assertEquals(2L, users.rows)
+        assertEquals(1L, index.get("true")!!.rows)
+        // Small segments split at headers give the same index
+        assertEquals(index.blocks, ISON.index(path, 80).blocks)
+
+        val sidecar = File.createTempFile("test_", ".idx").toPath()
+        index.save(sidecar)
+        val loaded = IsonIndex.load(sidecar)
+        assertEquals(index.blocks, loaded.blocks)
+        assertEquals(true, loaded.isCurrent(path))
+
+        val expected = ISON.parse(input)
+        ISON.openIndexed(path, sidecar).use { doc ->
+            assertEquals(expected.get("users")!!.toDict(), doc.get("users")!!.toDict())
+            assertEquals("héllo wörld", doc.get("config")!!.rows[0]["value"]?.asString())
+            assertEquals(null, doc.get("missing"))
+            assertEquals(expected.toDict(), doc.toDocument().toDict())
+        }
+    }
+
+    @Test
+    fun testTokenizer() {
+        assertEquals(listOf("1", "Alice Smith", "x"), Parser.tokenizeLine("1 \"Alice Smith\"\tx"))
+        assertEquals(listOf("a\"b", "c\nd", "e\\f"), Parser.tokenizeLine("\"a\\\"b\" \"c\\nd\" e\\f"))
+        assertEquals(listOf("ab cd", "x"), Parser.tokenizeLine("a\"b c\"d \"\" x"))
+        assertEquals(listOf("open quote"), Parser.tokenizeLine("  \"open quote"))
+        assertEquals(emptyList<String>(), Parser.tokenizeLine(" \t "))
+
+        val t = Tokenizer.local().tokenize("id \"a b\" ~", 3)
+        assertEquals(2, t.size)
+        assertEquals(3, t.start(0))
+        assertEquals(8, t.end(0))
+        assertEquals("a b", t.token(0))
+        assertEquals("~", t.token(1))
+        val long = (0 until 100).joinToString(" ")
+        assertEquals(100, t.tokenize(long).size)
+        assertEquals("99", t.token(99))
+
+        // tokenizeLine leaves nothing of the line in the thread's tokenizer
+        Parser.tokenizeLine("a b c")
+        assertEquals(0, Tokenizer.local().size)
+    }
+
+    @Test
+    fun testParseDedup() {
+        val sb = StringBuilder("table.events\nid:int status country note\n")
+        for (r in 0 until 500) {
+            sb.append("$r ${listOf("ok", "failed", "\"timed out\"")[r % 3]} ${listOf("DE", "FR")[r % 2]} note_$r\n")
+        }
+        val input = sb.toString()
+        val expected = ISON.parse(input)
+        val opts = ParseOptions(dedupLimit = 8)
+        val doc = ISON.parseWithOptions(input, opts)
+        assertEquals(expected.toDict(), doc.toDict())
+        val rows = doc.get("events")!!.rows
+        assertTrue(rows[0]["status"] === rows[3]["status"])
+        assertTrue(rows[2]["status"]!!.asString() === rows[5]["status"]!!.asString())
+        assertTrue(rows[0]["country"] === rows[498]["country"])
+        // Past the limit new tokens are decoded as usual
+        assertTrue(rows[8]["note"] !== rows[8 + 1]["note"])
+        assertEquals("note_499", rows[499]["note"]?.asString())
+
+        assertEquals(expected.toDict(), ISON.parseWithOptions(input, opts.copy(parallel = true, parallelRowThreshold = 1000, rowChunkSize = 256)).toDict())
+        assertEquals(expected.toDict(), Parser(StringReader(input), opts).parse().toDict())
+
+        // A repeated block name replaces the earlier block with its own fields and dictionaries
+        val small = ParseOptions(dedupLimit = 4)
+        for (text in listOf("table.t\na\n1\n\ntable.t\na b\n1 2\n", "table.t\na:int\n1\n\ntable.t\na:string\n1\n")) {
+            assertEquals(ISON.parse(text).toDict(), ISON.parseWithOptions(text, small).toDict())
+        }
+        assertEquals(Value.STRING("1"), ISON.parseWithOptions("table.t\na:int\n1\n\ntable.t\na:string\n1\n", small).get("t")!!.rows[0]["a"])
+        val isonl = "table.t|a|abc\ntable.u|x|y\ntable.t|a|def\ntable.t|a|abc\n"
+        val merged = ISON.parseISONLWithOptions(isonl, small).get("t")!!.rows
+        assertEquals(ISON.parseISONL(isonl).toDict(), ISON.parseISONLWithOptions(isonl, small).toDict())
+        assertTrue(merged[0]["a"] === merged[2]["a"])
+        // Shared reference Values cannot be changed through one of their rows
+        val refs = ISON.parseWithOptions("table.t\nowner\n:user:1\n:user:1\n", small).get("t")!!.rows
+        assertTrue(refs[0]["owner"] === refs[1]["owner"])
+        refs[0]["owner"]!!.refVal.id = "2"
+        assertEquals(":user:1", refs[1]["owner"]!!.toIson())
+    }
+
+    @Test
+    fun testDecodeTokenSpans() {
+        val tokens = listOf(
+            "42", "-0", "+7", "0", "1", "123456789012345", "1234567890123456789", "-3.5", "~", "null", "NULL", "nil",
+            "true", "TRUE", "false", "False", ":user:1", "abc", "\"quoted text\"", "\"12\"", "a\"b c\"d", "\"x\\\"y\\n\"", "\"\""
+        )
+        for (hint in listOf("", "int", "float", "bool", "string", "ref")) {
+            val h = TypeHint.of(hint)
+            for (raw in tokens) {
+                val text = "  $raw  "
+                val token = Scanner.decodeToken(text, 2, 2 + raw.length, null)
+                assertEquals("$hint $raw", Parser.parseValue(token, hint), h.decode(text, 2, 2 + raw.length, null))
+            }
+        }
+        assertEquals("ab cd", Scanner.decodeToken("a\"b c\"d", 0, 7, StringBuilder()))
+        assertEquals("x\"y\n", Scanner.decodeToken("\"x\\\"y\\n\"", 0, 8, null))
+        assertEquals("a\\b", Scanner.decodeToken("a\\b", 0, 3, null))
+    }
+
+    @Test
+    fun testParseColumnar() {
+        val sb = StringBuilder("table.events\nid:int score:float ok:bool status mixed user\n")
+        for (r in 0 until 300) {
+            val score = if (r % 10 == 0) "~" else "${r / 4.0}"
+            val mixed = if (r == 150) "abc" else "$r"
+            sb.append("$r $score ${r % 2 == 0} ${listOf("ok", "\"timed out\"")[r % 2]} $mixed :user:${r % 5}\n")
+        }
+        sb.append("42 1.5\n---\ntotal 4.5\n\nobject.config\nkey value\nname demo\n")
+        val input = sb.toString()
+        val expected = ISON.parse(input)
+        val blocks = ISON.parseColumnar(input)
+        assertEquals(listOf("events", "config"), blocks.keys.toList())
+        val events = blocks["events"]!!
+        assertEquals(301, events.size)
+        assertEquals(expected.get("events")!!.toDict(), events.toBlock().toDict())
+        assertEquals(expected.get("config")!!.toDict(), blocks["config"]!!.toBlock().toDict())
+
+        val id = events.column("id") as LongColumn
+        assertEquals(299L, id.getLong(299))
+        val score = events.column("score") as DoubleColumn
+        assertTrue(score.isNull(10))
+        assertEquals(0.25, score.getDouble(1), 0.0)
+        assertTrue(score.isMissing(300).not())
+        assertTrue(events.column("ok") is BoolColumn)
+        val status = events.column("status") as StringColumn
+        assertEquals(listOf("ok", "timed out"), status.dictionary.toList())
+        assertEquals("timed out", status.getString(1))
+        assertTrue(status.isMissing(300))
+        assertTrue(events.column("mixed") is ValueColumn)
+        assertEquals(ValueType.TypeString, events.column("mixed")!![150]!!.type)
+        assertEquals(ValueType.TypeInt, events.column("mixed")!![149]!!.type)
+        assertEquals(ValueType.TypeReference, events.row(3)["user"]?.type)
+        assertEquals(expected.get("events")!!.rows[300], events.rows()[300])
+        assertEquals(4.5, events.summaryRow!!["score"]?.asFloat())
+
+        assertEquals(expected.get("events")!!.toDict(), ColumnarBlock.of(expected.get("events")!!).toBlock().toDict())
+        assertEquals(expected.get("events")!!.toDict(), ISON.parseColumnar(StringReader(input)).getValue("events").toBlock().toDict())
+
+        // Fields sharing a name read the last cell the row has, as a row map does
+        for (text in listOf("table.t\nx x\n1\n", "table.t\nx x y\n1 2 3\n4\n")) {
+            val dup = ISON.parseColumnar(text)["t"]!!
+            assertEquals(ISON.parse(text).get("t")!!.rows, dup.rows())
+            assertEquals(ISON.parse(text).toDict(), Document().also { it.addBlock(dup.toBlock()) }.toDict())
+        }
+
+        // Integers mixed with floats are widened unless a double cannot hold them, and still read as integers
+        val numbers = "table.n\nx y\n1 2.5\n2.5 3\n~ 9007199254740993\n4 1.0\n"
+        val n = ISON.parseColumnar(numbers)["n"]!!
+        assertEquals(ISON.parse(numbers).get("n")!!.toDict(), n.toBlock().toDict())
+        val x = n.column("x") as DoubleColumn
+        assertEquals(4.0, x.getDouble(3), 0.0)
+        assertEquals(ValueType.TypeInt, x[0]!!.type)
+        assertEquals(ValueType.TypeFloat, x[1]!!.type)
+        assertTrue(n.column("y") is ValueColumn)
+    }
+
+    @Test
+    fun testArrayRow() {
+        val doc = ISON.parse("table.t\nid name tag\n1 a x\n2 b\n---\ncount 2\n")
+        val rows = doc.get("t")!!.rows
+        val r0 = rows[0] as ArrayRow
+        assertTrue(r0.layout === (rows[1] as ArrayRow).layout)
+        assertEquals(mapOf("id" to Value.INT(1), "name" to Value.STRING("a"), "tag" to Value.STRING("x")), r0)
+        assertEquals(listOf("id", "name"), rows[1].keys.toList())
+        assertEquals(false, rows[1].containsKey("tag"))
+
+        val row = ArrayRow(RowLayout(listOf("a", "b", "c")))
+        val ref = LinkedHashMap<String, Value>()
+        for (m in listOf(row, ref)) {
+            m["b"] = Value.INT(2)
+            m["a"] = Value.INT(1)
+            m["z"] = Value.STRING("extra")
+            m["c"] = Value.BOOL(true)
+            m.remove("a")
+            m.entries.first { it.key == "c" }.setValue(Value.BOOL(false))
+        }
+        assertEquals(ref, row)
+        assertEquals(row, ref)
+        assertEquals(ref.hashCode(), row.hashCode())
+        assertEquals(3, row.size)
+        assertEquals(listOf("b", "c", "z"), row.keys.toList())
+        val it = row.entries.iterator()
+        while (it.hasNext()) {
+            if (it.next().key != "c") it.remove()
+        }
+        assertEquals(mapOf("c" to Value.BOOL(false)), row)
+    }
+
+    @Test
+    @Suppress("DEPRECATION")
+    fun testValueModel() {
+        assertEquals(Value.INT(7), Value(ValueType.TypeInt, intVal = 7, stringVal = "ignored"))
+        assertEquals(Value.INT(7).hashCode(), Value(ValueType.TypeInt, intVal = 7).hashCode())
+        assertEquals(Value.FLOAT(Double.NaN), Value.FLOAT(Double.NaN))
+        assertTrue(Value.FLOAT(0.0) != Value.FLOAT(-0.0))
+        assertTrue(Value.INT(1) != Value.FLOAT(1.0))
+        assertTrue(Value.STRING("a") != Value.REF(Reference(id = "a")))
+        assertEquals(0L, Value.STRING("x").intVal)
+        assertEquals("", Value.INT(1).stringVal)
+        assertEquals(Reference(), Value.BOOL(true).refVal)
+        assertEquals(true, Value.BOOL(true).boolVal)
+        assertEquals(2.5, Value.FLOAT(2.5).floatVal, 0.0)
+        assertEquals("Value(type=TypeString, value=hi)", Value.STRING("hi").toString())
+    }
+
+    @Test
+    fun testSharedValues() {
+        assertTrue(Value.NULL() === Value.NULL())
+        assertTrue(Value.BOOL(true) === Value.BOOL(true))
+        assertTrue(Value.BOOL(false) !== Value.BOOL(true))
+        assertTrue(Value.INT(-128) === Value.INT(-128))
+        assertTrue(Value.INT(1023) === Value.INT(1023))
+        assertTrue(Value.INT(1024) !== Value.INT(1024))
+        assertEquals(Value.INT(1024), Value.INT(1024))
+        assertEquals(1023L, Value.intCacheHigh(null))
+        assertEquals(1023L, Value.intCacheHigh("lots"))
+        assertEquals(4096L, Value.intCacheHigh(" 4096"))
+        assertEquals(127L, Value.intCacheHigh("-5"))
+        assertEquals(65535L, Value.intCacheHigh("9999999999999"))
+        assertTrue(Parser.parseValue("~", "") === Parser.parseValue("null", "int"))
+        assertTrue(Parser.parseValue("1", "bool") === Value.BOOL(true))
+        val rows = ISON.parse("table.t\nn flag\n5 true\n5 TRUE\n").get("t")!!.rows
+        assertTrue(rows[0]["n"] === rows[1]["n"])
+        assertTrue(rows[0]["flag"] === rows[1]["flag"])
+    }
+
+    @Test
+    fun testBlockColumns() {
+        val block = ISON.parse("table.t\nid:int score:float ok:bool\n1 1.5 true\n2 ~ false\n3 2.5\n").get("t")!!
+        assertEquals(1, block.fieldIndex("score"))
+        assertEquals(-1, block.fieldIndex("nope"))
+        assertEquals(listOf(1L, 2L, 3L), block.longColumn("id")!!.toList())
+        assertEquals(listOf(1.5, -1.0, 2.5), block.doubleColumn("score", -1.0)!!.toList())
+        assertEquals(listOf(1L, 0L, 0L), block.longColumn("ok")!!.toList())
+        assertEquals(listOf(Value.BOOL(true), Value.BOOL(false), Value.NULL()), block.column("ok"))
+        assertEquals(null, block.column("nope"))
+        assertEquals(null, block.longColumn("nope"))
+
+        block.addField("extra", "")
+        block.rows[0]["extra"] = Value.INT(7)
+        assertEquals(3, block.fieldIndex("extra"))
+        assertEquals(listOf(7L, 0L, 0L), block.longColumn("extra")!!.toList())
+        assertEquals(listOf("id", "score", "ok", "extra"), block.getFieldNames())
+
+        block.renameField(0, "key")
+        assertEquals(0, block.fieldIndex("key"))
+        assertEquals(-1, block.fieldIndex("id"))
+        assertEquals("key", block.getFieldNames()[0])
+        block.fields = mutableListOf(FieldInfo("ok"))
+        assertEquals(0, block.fieldIndex("ok"))
+        assertEquals(listOf("ok"), block.getFieldNames())
+    }
+
+    @Test
+    fun testEstimateRetainedBytes() {
+        val sb = StringBuilder("table.t\nid:int name score:float\n")
+        for (i in 0 until 5000) {
+            sb.append(i).append(" name").append(i % 10).append(' ').append(i).append(".5\n")
+        }
+        val text = sb.toString()
+        val plain = ISON.parse(text)
+        val exact = plain.get("t")!!.estimateRetainedBytes(0)
+        // Each row holds at least a row object, a float Value and a string
+        assertTrue(exact > 5000L * 100)
+        assertTrue(exact < text.length * 40L)
+        val sampled = plain.get("t")!!.estimateRetainedBytes(500)
+        assertTrue(Math.abs(sampled - exact) < exact / 10)
+        assertTrue(plain.estimateRetainedBytes() >= exact)
+        // Shared strings and canonical integers are counted once
+        val dedup = ISON.parseWithOptions(text, ParseOptions(dedupLimit = 1024)).get("t")!!.estimateRetainedBytes(0)
+        assertTrue(dedup < exact)
+        // Lazy rows keep the source text alive instead of decoded Values
+        val lazy = ISON.parseWithOptions(text, ParseOptions(lazyValues = true)).estimateRetainedBytes()
+        assertTrue(lazy > text.length)
+        // A String source is counted even when its rows keep only a few spans of it
+        val big = "table.t\nid name\n1 a\n2 b\n3 c\n# ${"x".repeat(100_000)}\n"
+        assertTrue(ISON.parseWithOptions(big, ParseOptions(lazyValues = true)).get("t")!!.estimateRetainedBytes(0) > 100_000)
+        // Layouts, shared Values and the source text are not scaled with the sample
+        val wide = StringBuilder("table.w\nid tag\n")
+        for (i in 0 until 2000) {
+            wide.append(i).append(" tag").append(i % 5).append("y".repeat(1000)).append('\n')
+        }
+        for (options in listOf(ParseOptions(dedupLimit = 1024), ParseOptions(lazyValues = true))) {
+            val b = ISON.parseWithOptions(wide.toString(), options).get("w")!!
+            val all = b.estimateRetainedBytes(0)
+            assertTrue(Math.abs(b.estimateRetainedBytes(100) - all) < all / 10)
+        }
+        val small = Block("table", "b")
+        small.addField("n", "int")
+        small.addRow(mutableMapOf("n" to Value.INT(1)))
+        val one = small.estimateRetainedBytes()
+        small.addRow(mutableMapOf("n" to Value.INT(1)))
+        small.addRow(mutableMapOf("n" to Value.INT(100000)))
+        assertTrue(small.estimateRetainedBytes() > one)
+    }
+
+    @Test
+    fun testFreeze() {
+        val doc = ISON.parseWithOptions("table.users\nid:int name owner:ref\n1 Alice :org:1\n2 Bob ~\n---\n2 ~ ~\n\nobject.config\nmode\nfast\n",
+            ParseOptions(lazyValues = true))
+        doc.get("users")!!.rows[1]["note"] = Value.STRING("x")
+        val frozen = doc.freeze()
+        assertEquals(listOf("users", "config"), frozen.names)
+        val users = frozen.get("users")!!
+        assertEquals(2, users.size)
+        assertEquals(listOf("id", "name", "owner"), users.fieldNames)
+        assertEquals(2, users.fieldIndex("owner"))
+        assertEquals(Value.STRING("Alice"), users[0, "name"])
+        assertEquals(null, users[0, "note"])
+        assertEquals(Value.STRING("x"), users.row(1)["note"])
+        assertEquals(doc.get("users")!!.rows[1], users.row(1))
+        assertEquals(Value.INT(2), users.summaryRow!!["id"])
+        assertEquals(listOf(Value.INT(1), Value.INT(2)), users.column("id"))
+
+        // Later changes to the source do not reach the frozen copy, references included
+        doc.get("users")!!.rows[0]["name"] = Value.STRING("Carol")
+        doc.get("users")!!.rows[0]["owner"]!!.refVal.id = "9"
+        assertEquals(Value.STRING("Alice"), users[0, "name"])
+        assertEquals("1", users[0, "owner"]!!.refVal.id)
+        // Nor do changes through the frozen views
+        users[0, "owner"]!!.refVal.id = "hacked"
+        users.row(0)["owner"]!!.asRef()!!.namespace = "hacked"
+        (users.column("owner")!![0].intf() as Reference).relationship = "HACKED"
+        assertEquals(":org:1", users[0, "owner"]!!.toIson())
+        try {
+            @Suppress("PLATFORM_CLASS_MAPPED_TO_KOTLIN", "UNCHECKED_CAST")
+            (users.row(0) as java.util.Map<String, Value>).put("name", Value.STRING("Dan"))
+            fail("frozen row accepted a change")
+        } catch (e: UnsupportedOperationException) {
+        }
+
+        val builder = frozen.toBuilder()
+        builder.edit("users")!!.rows[0]["name"] = Value.STRING("Eve")
+        builder.remove("missing")
+        val next = builder.build()
+        assertEquals(Value.STRING("Eve"), next.get("users")!![0, "name"])
+        assertEquals(Value.STRING("Alice"), users[0, "name"])
+        assertTrue(next.get("config") === frozen.get("config"))
+        assertEquals(frozen.get("config")!!.row(0), frozen.toDocument().get("config")!!.rows[0])
+        assertEquals(listOf("config"), FrozenDocument.builder().put(doc.get("config")!!).build().names)
+    }
+
+    @Test
+    fun testParseBlockAtLine() {
+        val text = "# users\ntable.users\nid:int name\n1 Alice\n2 Bob\n\nobject.config\nmode\nfast\n"
+        val lines = text.lines()
+        @Suppress("DEPRECATION")
+        val block = Parser(text, lines, 1).parseBlock("table", "users")
+        assertEquals(ISON.parse(text).get("users"), block)
+        assertEquals(listOf("id", "name"), block.getFieldNames())
+        assertEquals(2, block.rows.size)
+        @Suppress("DEPRECATION")
+        val config = Parser(text, lines, 6).parseBlock("object", "config")
+        assertEquals(Value.STRING("fast"), config.rows[0]["mode"])
+    }
+
+    @Test
+    fun testMmapSegmentFieldLines() {
+        // The field lines of b and d look like headers, they must not start a segment
+        val input = "table.x\nid\n1\n\nobject.b\n\t\n\n\ntable.a\nid\n1\n\nobject.d\n# fields\nmeta.e\nv\ntable.f\nk\n2\n3\n"
+        val file = File.createTempFile("test_", ".ison")
+        file.deleteOnExit()
+        file.writeText(input)
+        val expected = ISON.parse(input).toDict()
+        val index = ISON.index(file.toPath())
+        assertEquals(listOf("x", "b", "d", "f"), index.names())
+        var split = 0
+        for (size in 16L..input.length.toLong()) {
+            val doc = try {
+                ISON.mmap(file.toPath(), ParseOptions(), false, size)
+            } catch (e: IllegalStateException) {
+                continue
+            }
+            split++
+            assertEquals("segment size $size", expected, doc.toDict())
+            assertEquals("segment size $size", index.blocks, ISON.index(file.toPath(), size).blocks)
+        }
+        assertTrue(split > 10)
+    }
+}
@@ -0,0 +1,279 @@
+package com.rarnu.ison.test
+
+import com.rarnu.ison.Delimiters
+import com.rarnu.ison.FieldInfo
+import com.rarnu.ison.ISON
+import com.rarnu.ison.IncrementalParser
+import com.rarnu.ison.IsonHandler
+import com.rarnu.ison.IsonEvent
+import com.rarnu.ison.MappedText
+import com.rarnu.ison.ParseOptions
+import com.rarnu.ison.RowView
+import com.rarnu.ison.Scanner
+import com.rarnu.ison.Tokenizer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.StringReader
+import java.nio.ByteBuffer
+
+class TestStreaming {
+
+    @Test
+    fun testReaderEvents() {
+        val input = """
+table.sales
+product amount:int
+Widget 100
+Gadget 200 extra
+---
+total 300
+
+object.config
+key value
+"""
+        val reader = ISON.reader(input)
+        val events = mutableListOf<IsonEvent>()
+        var sum = 0L
+        while (reader.hasNext()) {
+            val e = reader.next()
+            events.add(e)
+            if (e == IsonEvent.EventValue && reader.field.name == "amount" && !reader.inSummary) {
+                sum += reader.longValue()
+            }
+        }
+        assertEquals(300L, sum)
+        assertEquals(
+            listOf(
+                IsonEvent.EventBlockStart, IsonEvent.EventFields,
+                IsonEvent.EventRowStart, IsonEvent.EventValue, IsonEvent.EventValue, IsonEvent.EventRowEnd,
+                IsonEvent.EventRowStart, IsonEvent.EventValue, IsonEvent.EventValue, IsonEvent.EventRowEnd,
+                IsonEvent.EventSummaryStart,
+                IsonEvent.EventRowStart, IsonEvent.EventValue, IsonEvent.EventValue, IsonEvent.EventRowEnd,
+                IsonEvent.EventBlockEnd,
+                IsonEvent.EventBlockStart, IsonEvent.EventFields, IsonEvent.EventBlockEnd,
+                IsonEvent.EventEndDocument
+            ), events
+        )
+    }
+
+    @Test
+    fun testReaderISONL() {
+        val input = "table.users|id:int name|1 Alice\ntable.orders|id|O1\ntable.users|id:int name|2 Bob"
+        val reader = ISON.readerISONL(input)
+        val names = mutableListOf<String>()
+        val ids = mutableListOf<Long>()
+        while (reader.hasNext()) {
+            when (reader.next()) {
+                IsonEvent.EventBlockStart -> names.add(reader.name)
+                IsonEvent.EventValue -> if (reader.name == "users" && reader.fieldIndex == 0) ids.add(reader.longValue())
+                else -> {}
+            }
+        }
+        assertEquals(listOf("users", "orders", "users"), names)
+        assertEquals(listOf(1L, 2L), ids)
+
+        val doc = ISON.parseISONL(input)
+        assertEquals(listOf("users", "orders"), doc.order)
+        assertEquals(2, doc.get("users")!!.rows.size)
+    }
+
+    @Test
+    fun testHandler() {
+        val input = """
+table.orders
+id:int status total:float
+1 paid 12.5
+2 open 7.5
+3 paid 30.0
+---
+sum ~ 50.0
+"""
+        var paid = 0.0
+        var rows = 0
+        var summary: Map<String, Any?> = emptyMap()
+        ISON.parse(input, object : IsonHandler {
+            override fun onBlock(kind: String, name: String, fields: List<FieldInfo>) {
+                assertEquals("orders", name)
+                assertEquals(3, fields.size)
+            }
+
+            override fun onRow(block: String, row: RowView) {
+                rows++
+                if (row.token("status") == "paid") {
+                    paid += row.doubleValue("total")
+                }
+            }
+
+            override fun onSummary(block: String, row: RowView) {
+                assertTrue(row.isNull(1))
+                summary = row.toRow().mapValues { (_, v) -> v.intf() }
+            }
+        })
+        assertEquals(3, rows)
+        assertEquals(42.5, paid, 0.0)
+        assertEquals(50.0, summary["total"])
+    }
+
+    @Test
+    fun testIncrementalParser() {
+        val input = """
+# streamed
+table.users
+id:int name:string email
+1 Alice "alice@example.com"
+2 "Bob Smith" ~
+---
+count 2
+
+object.config
+timeout 30
+debug true
+table.orders
+id user_id
+O1 :user:1
+O2 :user:2"""
+        val expected = ISON.parse(input).toDict()
+        for (size in listOf(1, 3, 7, 64, input.length)) {
+            val p = IncrementalParser()
+            for (i in input.indices step size) {
+                p.feed(input.substring(i, minOf(input.length, i + size)))
+            }
+            assertEquals("chunk size $size", expected, p.finish()!!.toDict())
+        }
+
+        // Rows are emitted as soon as their line is complete, the unterminated last line waits for finish
+        val rows = mutableListOf<String>()
+        val p = IncrementalParser(object : IsonHandler {
+            override fun onBlock(kind: String, name: String, fields: List<FieldInfo>) {
+                rows.add("$kind.$name")
+            }
+
+            override fun onRow(block: String, row: RowView) {
+                rows.add(row.token(0)!!)
+            }
+
+            override fun onSummary(block: String, row: RowView) {}
+        })
+        p.feed("table.t\nid na").feed("me\n1 A")
+        assertEquals(listOf("table.t"), rows)
+        p.feed("lice\n2 B")
+        assertEquals(listOf("table.t", "1"), rows)
+        p.finish()
+        assertEquals(listOf("table.t", "1", "2"), rows)
+
+        // Blocks after a blank line or a header are emitted before finish, lines after a blank line are not rows
+        rows.clear()
+        val q = IncrementalParser(object : IsonHandler {
+            override fun onBlock(kind: String, name: String, fields: List<FieldInfo>) {
+                rows.add("$kind.$name")
+            }
+
+            override fun onRow(block: String, row: RowView) {
+                rows.add("$block ${row.token(0)}")
+            }
+
+            override fun onSummary(block: String, row: RowView) {}
+        })
+        q.feed("table.a\nid\n1\n\nstray line\ntable.b\nid\n2\n3\n")
+        assertEquals(listOf("table.a", "a 1", "table.b", "b 2", "b 3"), rows)
+        q.feed("4\n5\ntable.c\nid\n")
+        assertEquals(listOf("table.a", "a 1", "table.b", "b 2", "b 3", "b 4", "b 5", "table.c"), rows)
+        q.feed("6\n\nstray\n").finish()
+        assertEquals("c 6", rows.last())
+        val stray = "table.a\nid\n1\n\nstray line\ntable.b\nid\n2\n"
+        for (size in listOf(1, 3, 7, stray.length)) {
+            val sp = IncrementalParser()
+            stray.chunked(size).forEach { sp.feed(it) }
+            assertEquals("chunk size $size", ISON.parse(stray).toDict(), sp.finish()!!.toDict())
+        }
+
+        // A skipped block keeps skipping across feeds, its field line is not taken for a header
+        val skipped = "table.skip\n\n# fields next\ntable.ghost\n1\n2\n\ntable.keep\nid\n1\n\ntable.skip\nid\n3\ntable.keep\nid\n2\n"
+        val keep = ParseOptions(blocks = setOf("keep", "ghost"))
+        val kept = ISON.parseWithOptions(skipped, keep).toDict()
+        val sp = IncrementalParser(options = keep)
+        skipped.forEach { sp.feed(it.toString()) }
+        assertEquals(listOf("keep"), kept.keys.toList())
+        assertEquals(kept, sp.finish()!!.toDict())
+        val skippedISONL = "table.skip|a|1\ntable.skip|a|2\ntable.keep|id|1\ntable.skip|a|3\ntable.keep|id|2\n"
+        val lp = IncrementalParser(isonl = true, options = keep)
+        skippedISONL.forEach { lp.feed(it.toString()) }
+        assertEquals(ISON.parseISONLWithOptions(skippedISONL, keep).toDict(), lp.finish()!!.toDict())
+
+        val isonl = ISON.ISONToISONL(input)
+        val pl = IncrementalParser(isonl = true)
+        for (i in isonl.indices step 5) {
+            pl.feed(isonl.substring(i, minOf(isonl.length, i + 5)))
+        }
+        assertEquals(ISON.parseISONL(isonl).toDict(), pl.finish()!!.toDict())
+    }
+
+    @Test
+    fun testVectorDelimiters() {
+        val finder = Delimiters.finder
+        // The test JVM runs with --add-modules jdk.incubator.vector
+        assertTrue(finder != null)
+        val chars = "plain_token_without_any_delimiters_at_all \"quoted text with \\\" escapes\"\tend".toCharArray()
+        for (from in chars.indices) {
+            for (to in from..chars.size) {
+                assertEquals(scalarFind(chars, from, to), finder!!.find(chars, from, to))
+            }
+        }
+
+        val sb = StringBuilder("table.notes\nid text\n")
+        for (i in 0 until 200) {
+            sb.append("$i \"${"lorem ipsum dolor sit amet ".repeat(i % 7)}\\\"quoted\\\" \\\\ end\"\n")
+        }
+        val input = sb.toString()
+        assertEquals(ISON.parse(input).toDict(), ISON.parse(StringReader(input)).toDict())
+
+        val bytes = "x ø\"quoted \\\" ä\" plain_token_without_any_delimiters_at_all\tend".toByteArray()
+        for (from in bytes.indices) {
+            for (to in from..bytes.size) {
+                assertEquals(scalarFind(bytes, from, to), finder!!.find(bytes, from, to))
+            }
+        }
+        // In-memory and mapped text are searched through a copy of each line, token spans match the scalar tokenizer
+        val mapped = MappedText(ByteBuffer.wrap(input.toByteArray()))
+        for (text in listOf<CharSequence>(input, mapped)) {
+            val scanner = Scanner(text)
+            while (scanner.nextLine()) {
+                val expected = Tokenizer().tokenize(text, scanner.lineStart, scanner.lineEnd)
+                var n = 0
+                while (scanner.skipToken()) {
+                    assertEquals(expected.start(n), scanner.tokenStart)
+                    assertEquals(expected.end(n), scanner.tokenEnd)
+                    n++
+                }
+                assertEquals(expected.size, n)
+            }
+        }
+    }
+
+    /**
+     * scalar reference of DelimiterFinder.find
+     */
+    private fun scalarFind(chars: CharArray, from: Int, to: Int): Int {
+        for (i in from until to) {
+            val ch = chars[i]
+            if (ch == ' ' || ch == '\t' || ch == '"' || ch == '\\') {
+                return i
+            }
+        }
+        return to
+    }
+
+    /**
+     * scalar reference of DelimiterFinder.find over UTF-8 bytes
+     */
+    private fun scalarFind(bytes: ByteArray, from: Int, to: Int): Int {
+        for (i in from until to) {
+            val b = bytes[i].toInt()
+            if (b == ' '.code || b == '\t'.code || b == '"'.code || b == '\\'.code) {
+                return i
+            }
+        }
+        return to
+    }
+}
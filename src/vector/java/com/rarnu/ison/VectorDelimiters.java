@@ -0,0 +1,58 @@
+package com.rarnu.ison;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * finds delimiters a whole vector of chars at a time, loaded by Delimiters only when the
+ * jdk.incubator.vector module is present
+ */
+final class VectorDelimiters implements DelimiterFinder {
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public int find(char[] chars, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, chars, i);
+            VectorMask<Short> m = v.eq((short) ' ').or(v.eq((short) '\t')).or(v.eq((short) '"')).or(v.eq((short) '\\'));
+            if (m.anyTrue()) {
+                return i + m.firstTrue();
+            }
+        }
+        // Tail shorter than a vector
+        for (; i < to; i++) {
+            char ch = chars[i];
+            if (ch == ' ' || ch == '\t' || ch == '"' || ch == '\\') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    @Override
+    public int find(byte[] bytes, int from, int to) {
+        int i = from;
+        int bound = from + BYTE_SPECIES.loopBound(to - from);
+        for (; i < bound; i += BYTE_SPECIES.length()) {
+            ByteVector v = ByteVector.fromArray(BYTE_SPECIES, bytes, i);
+            VectorMask<Byte> m = v.eq((byte) ' ').or(v.eq((byte) '\t')).or(v.eq((byte) '"')).or(v.eq((byte) '\\'));
+            if (m.anyTrue()) {
+                return i + m.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b == ' ' || b == '\t' || b == '"' || b == '\\') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+}